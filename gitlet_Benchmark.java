@@ -0,0 +1,515 @@
+package gitlet;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.lang.management.ManagementFactory;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
+import java.util.stream.Stream;
+
+import static gitlet.Utils.*;
+
+/** Micro-benchmarks for the object store. Each benchmark builds a scratch
+ *  repository in .gitlet under the current directory, so it must be run
+ *  from an empty directory.
+ *
+ *  Usage: java gitlet.Benchmark codec [FILES [KILOBYTES]]
+ *         java gitlet.Benchmark mergebase [COMMITS [QUERIES]]
+ *         java gitlet.Benchmark decode [COMMITS [FILES]]
+ *         java gitlet.Benchmark write [FILES [KILOBYTES]]
+ *         java gitlet.Benchmark diff [MEGABYTES [EDITS]]
+ *         java gitlet.Benchmark checkout [FILES [MEGABYTES]]
+ *         java gitlet.Benchmark find [COMMITS [QUERIES]] */
+class Benchmark {
+
+    /** Run the benchmark named by ARGS[0] with the remaining ARGS. */
+    public static void main(String[] args) throws IOException {
+        if (REPO.exists() || WORK.exists()) {
+            System.err.println("Run the benchmarks from an empty directory.");
+            System.exit(1);
+        }
+        String which = args.length > 0 ? args[0] : "codec";
+        try {
+            switch (which) {
+            case "codec":
+                codec(intArg(args, 1, 200), intArg(args, 2, 256));
+                break;
+            case "mergebase":
+                mergeBase(intArg(args, 1, 100000), intArg(args, 2, 200));
+                break;
+            case "decode":
+                decode(intArg(args, 1, 2000), intArg(args, 2, 500));
+                break;
+            case "write":
+                write(intArg(args, 1, 2000), intArg(args, 2, 4));
+                break;
+            case "checkout":
+                checkout(intArg(args, 1, 20), intArg(args, 2, 16));
+                break;
+            case "diff":
+                diff(intArg(args, 1, 4), intArg(args, 2, 500));
+                break;
+            case "find":
+                find(intArg(args, 1, 20000), intArg(args, 2, 200));
+                break;
+            default:
+                System.err.printf("Unknown benchmark %s.%n", which);
+                System.exit(1);
+            }
+        } finally {
+            delete(REPO.toPath());
+            delete(WORK.toPath());
+        }
+    }
+
+    /** Store COUNT text-like files of KILOBYTES each with every codec,
+     *  then check them all out again, and report the size of the store
+     *  and the checkout throughput. */
+    static void codec(int count, int kilobytes) throws IOException {
+        WORK.mkdirs();
+        ArrayList<Blob> blobs = new ArrayList<>();
+        Random random = new Random(SEED);
+        for (int i = 0; i < count; i += 1) {
+            File file = join(WORK, "file" + i + ".txt");
+            Files.write(file.toPath(), text(random, kilobytes << 10));
+            blobs.add(new Blob(file));
+        }
+        long total = (long) count * (kilobytes << 10);
+
+        System.out.printf("%-6s %12s %12s %14s%n",
+                "codec", "stored KiB", "write MB/s", "checkout MB/s");
+        for (Codec codec : Codec.values()) {
+            delete(REPO.toPath());
+            ObjectStore.setCodec(codec);
+
+            long start = System.nanoTime();
+            for (Blob blob : blobs) {
+                ObjectStore.writeBlob(blob);
+            }
+            double write = rate(total, System.nanoTime() - start);
+
+            File out = join(WORK, "checkout");
+            start = System.nanoTime();
+            for (Blob blob : blobs) {
+                new Blob(blob.name(), blob.id(), blob.size()).restore(out);
+            }
+            double checkout = rate(total, System.nanoTime() - start);
+
+            System.out.printf("%-6s %12d %12.1f %14.1f%n", codec,
+                    size(ObjectStore.FILES.toPath()) >> 10, write, checkout);
+        }
+        ObjectStore.setCodec(Codec.FAST);
+    }
+
+    /** Encode COUNT commits, each tracking FILES files, and as many
+     *  staged blobs both in the binary ObjectFormat and with Java
+     *  serialization, then report the encoded size and the time to
+     *  decode each kind of object from each encoding. */
+    static void decode(int count, int files) {
+        Random random = new Random(SEED);
+        ArrayList<byte[]> commits = new ArrayList<>(),
+            serialCommits = new ArrayList<>(),
+            blobs = new ArrayList<>(), serialBlobs = new ArrayList<>();
+        ObjectId parent = null;
+        for (int i = 0; i < count; i += 1) {
+            Manifest manifest = new Manifest();
+            for (int k = 0; k < files; k += 1) {
+                manifest.put("src/file" + k + ".txt",
+                        ObjectId.of(sha1(String.valueOf(random.nextLong()))),
+                        random.nextInt(1 << 20));
+            }
+            ObjectId id = ObjectId.of(sha1(String.valueOf(i)));
+            Commit commit = new Commit(id, 1000L * i, "commit " + i,
+                    parent, null, manifest);
+            commits.add(ObjectFormat.encode(commit));
+            serialCommits.add(serialize(commit));
+            Blob blob = new Blob("file" + i + ".txt", id, i);
+            blobs.add(ObjectFormat.encode(blob));
+            serialBlobs.add(serialize(blob));
+            parent = id;
+        }
+
+        System.out.printf("%-16s %12s %16s%n",
+                "object", "bytes each", "decode us each");
+        for (int round = 0; round < 2; round += 1) {
+            boolean report = round == 1;
+            decodeRow("commit binary", commits, true, report);
+            decodeRow("commit serial", serialCommits, true, report);
+            decodeRow("blob binary", blobs, false, report);
+            decodeRow("blob serial", serialBlobs, false, report);
+        }
+    }
+
+    /** Decode every one of the encoded commits or, if not COMMITS, staged
+     *  blobs in ENCODED, and print a row headed NAME if REPORT. The first
+     *  call for each row warms up the JIT. */
+    static void decodeRow(String name, List<byte[]> encoded,
+                          boolean commits, boolean report) {
+        long bytes = 0;
+        long start = System.nanoTime();
+        for (byte[] object : encoded) {
+            if (commits) {
+                ObjectFormat.decodeCommit(object);
+            } else {
+                ObjectFormat.decodeBlob(object);
+            }
+            bytes += object.length;
+        }
+        long nanos = System.nanoTime() - start;
+        if (report) {
+            System.out.printf("%-16s %12d %16.2f%n", name,
+                    bytes / encoded.size(), nanos / 1e3 / encoded.size());
+        }
+    }
+
+    /** Add COUNT text-like files of KILOBYTES each, and commit, first
+     *  forcing each object to disk as it is written and then writing
+     *  them behind and forcing them together, and report the time each
+     *  takes until every object is durable. */
+    static void write(int count, int kilobytes) throws IOException {
+        WORK.mkdirs();
+        ArrayList<File> files = new ArrayList<>();
+        Random random = new Random(SEED);
+        for (int i = 0; i < count; i += 1) {
+            File file = join(WORK, "file" + i + ".txt");
+            Files.write(file.toPath(), text(random, kilobytes << 10));
+            files.add(file);
+        }
+
+        System.out.printf("%-14s %10s %12s%n", "writes", "ms", "objects/s");
+        for (boolean behind : new boolean[] {false, true}) {
+            delete(REPO.toPath());
+            REPO.mkdirs();
+            if (behind) {
+                ObjectStore.writeBehind();
+            }
+            long start = System.nanoTime();
+            Parallel.add(files, null, new StatIndex(join(REPO, "index")));
+            ObjectStore.writeCommit(new Commit());
+            ObjectStore.sync();
+            long nanos = System.nanoTime() - start;
+            System.out.printf("%-14s %10.1f %12.0f%n",
+                    behind ? "write-behind" : "one at a time", nanos / 1e6,
+                    (count + 1) / (nanos / 1e9));
+        }
+    }
+
+    /** Store COUNT incompressible files of MEGABYTES each, then check them
+     *  out by streaming them through the heap and by copying them straight
+     *  from the store, first loose and then packed, and report the
+     *  throughput and the heap allocated by each. */
+    static void checkout(int count, int megabytes) throws IOException {
+        WORK.mkdirs();
+        REPO.mkdirs();
+        ArrayList<Blob> blobs = new ArrayList<>();
+        Random random = new Random(SEED);
+        byte[] data = new byte[megabytes << 20];
+        for (int i = 0; i < count; i += 1) {
+            random.nextBytes(data);
+            File file = join(WORK, "asset" + i + ".bin");
+            Files.write(file.toPath(), data);
+            Blob blob = new Blob(file);
+            ObjectStore.writeBlob(blob);
+            blobs.add(new Blob(blob.name(), blob.id(), blob.size()));
+        }
+        long total = (long) count * data.length;
+        File out = join(WORK, "checkout");
+
+        System.out.printf("%-8s %-10s %10s %14s%n", "store", "checkout",
+                "MB/s", "allocated MB");
+        for (String store : new String[] {"loose", "packed"}) {
+            if (store.equals("packed")) {
+                ObjectStore.packLooseObjects();
+            }
+            for (boolean direct : new boolean[] {false, true}) {
+                long allocated = allocated(), start = System.nanoTime();
+                for (Blob blob : blobs) {
+                    if (direct) {
+                        blob.restore(out);
+                    } else {
+                        try (OutputStream stream = new FileOutputStream(out)) {
+                            blob.writeContent(stream);
+                        }
+                    }
+                }
+                long nanos = System.nanoTime() - start;
+                System.out.printf("%-8s %-10s %10.1f %14.1f%n", store,
+                        direct ? "direct" : "streamed", rate(total, nanos),
+                        (allocated() - allocated) / 1e6);
+            }
+        }
+    }
+
+    /** Return the number of bytes of heap this thread has allocated. */
+    static long allocated() {
+        return ((com.sun.management.ThreadMXBean)
+                ManagementFactory.getThreadMXBean())
+            .getThreadAllocatedBytes(Thread.currentThread().getId());
+    }
+
+    /** Diff a text file of MEGABYTES against a copy with about EDITS
+     *  lines changed, inserted or deleted, with histogram diff and with
+     *  Myers' algorithm alone, then merge two such copies with the
+     *  original as base, and report the time each takes. */
+    static void diff(int megabytes, int edits) throws IOException {
+        Random random = new Random(SEED);
+        byte[] base = text(random, megabytes << 20);
+        byte[] ours = edit(random, base, edits),
+            theirs = edit(random, base, edits);
+        Diff.Lines a = new Diff.Lines(base), b = new Diff.Lines(ours);
+        System.out.printf("%d lines, %d bytes%n", a.size(), base.length);
+
+        System.out.printf("%-14s %8s %10s %10s%n", "diff", "edits", "ms",
+                "MB/s");
+        for (String which : new String[] {"histogram", "myers"}) {
+            long start = System.nanoTime();
+            List<Diff.Edit> found = which.equals("myers")
+                ? Diff.myers(a, b) : Diff.lines(a, b);
+            Diff.writeHunks(OutputStream.nullOutputStream(), a, b, found,
+                    Diff.CONTEXT);
+            long nanos = System.nanoTime() - start;
+            System.out.printf("%-14s %8d %10.1f %10.1f%n", which,
+                    found.size(), nanos / 1e6,
+                    rate(base.length + ours.length, nanos));
+        }
+        long start = System.nanoTime();
+        ThreeWayMerge merge = new ThreeWayMerge(base, ours, theirs);
+        merge.merged();
+        long nanos = System.nanoTime() - start;
+        System.out.printf("%-14s %8d %10.1f %10.1f%n", "merge",
+                merge.conflicts(), nanos / 1e6,
+                rate(base.length + ours.length + theirs.length, nanos));
+    }
+
+    /** Return a copy of the text DATA in which about EDITS lines, chosen
+     *  with RANDOM, have been replaced, deleted, or had a line inserted
+     *  after them. */
+    static byte[] edit(Random random, byte[] data, int edits)
+        throws IOException {
+        Diff.Lines lines = new Diff.Lines(data);
+        ByteArrayOutputStream out = new ByteArrayOutputStream(data.length);
+        for (int i = 0; i < lines.size(); i += 1) {
+            if (random.nextInt(lines.size()) >= edits) {
+                lines.copy(out, i, i + 1);
+                continue;
+            }
+            byte[] line = text(random, 40 + random.nextInt(40));
+            line[line.length - 1] = '\n';
+            switch (random.nextInt(3)) {
+            case 0:
+                out.writeBytes(line);
+                break;
+            case 1:
+                break;
+            default:
+                lines.copy(out, i, i + 1);
+                out.writeBytes(line);
+                break;
+            }
+        }
+        return out.toByteArray();
+    }
+
+    /** Build a synthetic history of COUNT commits on two branches that
+     *  merge into each other every so often, sometimes in both directions
+     *  at once (criss-cross), then time QUERIES merge-base computations
+     *  between the branches against a naive walk that collects every
+     *  ancestor of one side and searches from the other. */
+    static void mergeBase(int count, int queries) {
+        REPO.mkdirs();
+        List<String> none = Collections.emptyList();
+        Random random = new Random(SEED);
+        ArrayList<Commit> all = new ArrayList<>();
+        ArrayList<Commit> left = new ArrayList<>(), right = new ArrayList<>();
+        Commit a = new Commit(), b = a;
+        all.add(a);
+        for (int i = 1; all.size() < count; i += 1) {
+            if (i % 97 == 0) {
+                Commit merged = new Commit(a, b, "merge " + i, none, none);
+                if (random.nextBoolean()) {
+                    b = new Commit(b, a, "cross " + i, none, none);
+                    all.add(b);
+                }
+                a = merged;
+                all.add(a);
+            } else if (random.nextBoolean()) {
+                a = new Commit(a, "left " + i, none, none);
+                all.add(a);
+            } else {
+                b = new Commit(b, "right " + i, none, none);
+                all.add(b);
+            }
+            left.add(a);
+            right.add(b);
+        }
+        CommitGraph graph = ObjectStore.commitGraph();
+        long start = System.nanoTime();
+        graph.add(all);
+        System.out.printf("graph of %d commits built in %.1f ms%n",
+                graph.size(), (System.nanoTime() - start) / 1e6);
+
+        MergeBase engine = new MergeBase(graph);
+        long fast = 0, naive = 0;
+        for (int q = 0; q < queries; q += 1) {
+            int i = left.size() / 2 + random.nextInt(left.size() / 2);
+            ObjectId x = left.get(i).id();
+            ObjectId y =
+                right.get(random.nextInt(left.size() / 2) + i / 2).id();
+
+            start = System.nanoTime();
+            engine.find(x, y);
+            fast += System.nanoTime() - start;
+
+            start = System.nanoTime();
+            naiveMergeBase(graph, graph.find(x), graph.find(y));
+            naive += System.nanoTime() - start;
+        }
+        System.out.printf("merge base: %.3f ms/query, naive walk: "
+                + "%.3f ms/query%n", fast / 1e6 / queries,
+                naive / 1e6 / queries);
+    }
+
+    /** Store COUNT commits with generated messages, timing the message
+     *  index built over them at once and then grown one commit at a time,
+     *  then time QUERIES searches for a word used by one commit, for two
+     *  words used by many and for a word used by none against a scan that
+     *  reads every commit. */
+    static void find(int count, int queries) {
+        REPO.mkdirs();
+        List<String> none = Collections.emptyList();
+        Random random = new Random(SEED);
+        ArrayList<Commit> all = new ArrayList<>();
+        Commit commit = new Commit();
+        all.add(commit);
+        while (all.size() < count) {
+            StringBuilder message = new StringBuilder();
+            for (int k = 2 + random.nextInt(6); k > 0; k -= 1) {
+                message.append(WORDS[random.nextInt(WORDS.length)])
+                    .append(' ');
+            }
+            message.append("#").append(all.size());
+            commit = new Commit(commit, message.toString(), none, none);
+            all.add(commit);
+        }
+        int batch = all.size() - Math.min(1000, all.size() / 10);
+        MessageIndex scratch = new MessageIndex(new File(REPO, "scratch"));
+        long start = System.nanoTime();
+        scratch.add(all.subList(0, batch));
+        System.out.printf("index of %d commits built in %.1f ms%n",
+                batch, (System.nanoTime() - start) / 1e6);
+        start = System.nanoTime();
+        for (Commit added : all.subList(batch, all.size())) {
+            scratch.add(Collections.singletonList(added));
+        }
+        System.out.printf("%d commits added one at a time: %.3f ms each, "
+                + "leaving %d segments%n", all.size() - batch,
+                (System.nanoTime() - start) / 1e6 / (all.size() - batch),
+                scratch.segments());
+
+        ObjectStore.writeCommits(all);
+        MessageIndex index = ObjectStore.messageIndex();
+        MessageIndex scan = new MessageIndex(new File(REPO, "none"));
+        String[] kinds = { "one commit", "common pair", "no commit" };
+        for (int kind = 0; kind < kinds.length; kind += 1) {
+            long indexed = 0, scanned = 0;
+            int found = 0, scans = Math.max(1, queries / 50);
+            for (int q = 0; q < queries; q += 1) {
+                String words = kind == 0 ? "#" + random.nextInt(count)
+                    : kind == 1 ? "the commit" : "rebase";
+                start = System.nanoTime();
+                found += index.grep(words).size();
+                indexed += System.nanoTime() - start;
+                if (q < scans) {
+                    start = System.nanoTime();
+                    scan.grep(words);
+                    scanned += System.nanoTime() - start;
+                }
+            }
+            System.out.printf("%-11s (%5.0f hits): indexed %8.1f us/query, "
+                    + "scan %8.1f us/query%n", kinds[kind],
+                    (double) found / queries, indexed / 1e3 / queries,
+                    scanned / 1e3 / scans);
+        }
+    }
+
+    /** Return the first ancestor of B, in breadth-first order, that is
+     *  also an ancestor of A, found by listing every ancestor of A. */
+    static int naiveMergeBase(CommitGraph graph, int a, int b) {
+        HashSet<Integer> ancestors = new HashSet<>(graph.ancestors(a));
+        for (int k : graph.ancestors(b)) {
+            if (ancestors.contains(k)) {
+                return k;
+            }
+        }
+        return CommitGraph.NONE;
+    }
+
+    /** Return SIZE bytes of pseudo-random English-like text from RANDOM. */
+    static byte[] text(Random random, int size) {
+        byte[] result = new byte[size];
+        for (int i = 0; i < size; ) {
+            byte[] word = WORDS[random.nextInt(WORDS.length)].getBytes();
+            for (int k = 0; k < word.length && i < size; k += 1, i += 1) {
+                result[i] = word[k];
+            }
+            if (i < size) {
+                result[i++] = (byte) (random.nextInt(12) == 0 ? '\n' : ' ');
+            }
+        }
+        return result;
+    }
+
+    /** Return ARGS[K] as an integer, or DEFAULTVALUE if absent. */
+    static int intArg(String[] args, int k, int defaultValue) {
+        return args.length > k ? Integer.parseInt(args[k]) : defaultValue;
+    }
+
+    /** Return the rate in MB/s of handling BYTES in NANOS nanoseconds. */
+    static double rate(long bytes, long nanos) {
+        return (bytes / 1e6) / (nanos / 1e9);
+    }
+
+    /** Return the total size of the files under PATH. */
+    static long size(Path path) throws IOException {
+        try (Stream<Path> files = Files.walk(path)) {
+            return files.filter(Files::isRegularFile)
+                    .mapToLong(p -> p.toFile().length()).sum();
+        }
+    }
+
+    /** Delete PATH and everything under it, if it exists. */
+    static void delete(Path path) throws IOException {
+        if (!Files.exists(path)) {
+            return;
+        }
+        try (Stream<Path> files = Files.walk(path)) {
+            files.sorted(Comparator.reverseOrder())
+                    .forEach(p -> p.toFile().delete());
+        }
+    }
+
+    /** Scratch repository. */
+    static final File REPO = new File("./.gitlet");
+
+    /** Scratch working directory. */
+    static final File WORK = new File("./bench-work");
+
+    /** Seed for all generated data. */
+    static final long SEED = 61;
+
+    /** Vocabulary of generated text. */
+    private static final String[] WORDS = {
+        "the", "commit", "blob", "merge", "branch", "of", "and", "file",
+        "a", "tree", "to", "is", "staging", "history", "checkout", "in",
+    };
+
+}
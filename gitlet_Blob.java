@@ -1,24 +1,59 @@
 package gitlet;
 
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
 import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
 import java.io.Serializable;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
 
-import static gitlet.Utils.readContents;
-import static gitlet.Utils.sha1;
+import static gitlet.Utils.error;
 
 public class Blob implements Serializable, Comparable {
 
-    /** Default blob constructor. */
+    /** Default blob constructor. The file at PATH is hashed through a
+     *  fixed-size buffer rather than read into memory, so that blobs of
+     *  any size take constant space; its contents are streamed into the
+     *  object store by ObjectStore.writeBlob. The hash covers the contents
+     *  alone, so files with the same contents under different names share
+     *  one stored blob. */
     Blob(File path) {
         _file = path;
         _name = path.getName();
-        _content = readContents(path);
-        _id = sha1(_name, _content);
+        _size = path.length();
+        try (InputStream in = new FileInputStream(path)) {
+            _id = hash(null, in);
+        } catch (IOException excp) {
+            throw error("Could not hash %s: %s", path, excp.getMessage());
+        }
     }
 
+    /** A blob for the working file PATH whose hash is already known to
+     *  be ID, as recorded in the stat index. */
+    Blob(File path, ObjectId id) {
+        _file = path;
+        _name = path.getName();
+        _size = path.length();
+        _id = id;
+    }
+
+    /** A blob for file NAME with hash ID and SIZE bytes, as listed in a
+     *  commit's manifest. Its contents are read from the object store
+     *  only when first requested. */
+    Blob(String name, ObjectId id, long size) {
+        _name = name;
+        _id = id;
+        _size = size;
+    }
 
 
-    public String id() {
+    public ObjectId id() {
         return _id;
     }
 
@@ -26,10 +61,75 @@ public class Blob implements Serializable, Comparable {
         return _name;
     }
 
+    /** Return the hash this file would have had before blobs were named by
+     *  their contents alone: that of its name followed by its contents.
+     *  Files committed before then are tracked under such hashes. */
+    public ObjectId legacyId() {
+        try (InputStream in = openContent()) {
+            return hash(_name, in);
+        } catch (IOException excp) {
+            throw error("Could not hash %s: %s", _name, excp.getMessage());
+        }
+    }
+
+    /** Return the contents of this file, loading them from the working
+     *  file or the object store's cache on first use. Prefer
+     *  openContent() or writeContent() for files that may be large. */
     public byte[] content() {
+        if (_content == null && _file == null) {
+            _content = ObjectStore.blobContents(_id);
+        } else if (_content == null) {
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            writeContent(out);
+            _content = out.toByteArray();
+        }
         return _content;
     }
 
+    /** Return a stream over the contents of this file. */
+    public InputStream openContent() {
+        try {
+            if (_content != null) {
+                return new ByteArrayInputStream(_content);
+            } else if (_file != null) {
+                return new FileInputStream(_file);
+            } else {
+                return ObjectStore.openBlob(_id);
+            }
+        } catch (IOException excp) {
+            throw error("Could not read %s: %s", _name, excp.getMessage());
+        }
+    }
+
+    /** Copy the contents of this file to OUT in BUFFER_SIZE chunks. */
+    public void writeContent(OutputStream out) {
+        try (InputStream in = openContent()) {
+            copy(in, out);
+        } catch (IOException excp) {
+            throw error("Could not read %s: %s", _name, excp.getMessage());
+        }
+    }
+
+    /** Overwrite the file at DEST with the contents of this blob, without
+     *  holding them in memory. A stored blob kept uncompressed is copied
+     *  by the operating system, without passing through memory at all. */
+    public void restore(File dest) {
+        if (_content == null && _file == null
+            && ObjectStore.transferBlob(_id, dest)) {
+            return;
+        }
+        try (OutputStream out = new FileOutputStream(dest)) {
+            writeContent(out);
+        } catch (IOException excp) {
+            throw error("Could not write %s: %s", dest, excp.getMessage());
+        }
+    }
+
+    /** Return the length of this file's contents in bytes. */
+    public long size() {
+        return _size;
+    }
+
     @Override
     public int compareTo(Object o) {
         return name().compareTo(((Blob) o).name());
@@ -42,17 +142,52 @@ public class Blob implements Serializable, Comparable {
 
     @Override
     public int hashCode() {
-        return super.hashCode();
+        return _id.hashCode();
+    }
+
+    /** Copy all of IN to OUT through a BUFFER_SIZE buffer. */
+    static void copy(InputStream in, OutputStream out) throws IOException {
+        byte[] buffer = new byte[BUFFER_SIZE];
+        for (int n = in.read(buffer); n >= 0; n = in.read(buffer)) {
+            out.write(buffer, 0, n);
+        }
+    }
+
+    /** Return the SHA-1 hash of PREFIX, unless it is null, followed by
+     *  all of IN, as Utils.sha1 would, reading IN in chunks. */
+    private static ObjectId hash(String prefix, InputStream in)
+        throws IOException {
+        MessageDigest md;
+        try {
+            md = MessageDigest.getInstance("SHA-1");
+        } catch (NoSuchAlgorithmException excp) {
+            throw error("SHA-1 is not supported.");
+        }
+        if (prefix != null) {
+            md.update(prefix.getBytes(StandardCharsets.UTF_8));
+        }
+        byte[] buffer = new byte[BUFFER_SIZE];
+        for (int n = in.read(buffer); n >= 0; n = in.read(buffer)) {
+            md.update(buffer, 0, n);
+        }
+        return ObjectId.of(md.digest());
     }
 
-    /** The (almost) unique SHA-1 hash value for this blob. */
-    String _id;
+    /** Size of the buffer used to hash and copy file contents. */
+    static final int BUFFER_SIZE = 1 << 16;
+
+    /** The (almost) unique SHA-1 hash value of this blob's contents. */
+    ObjectId _id;
 
     /** Filename. */
     private String _name;
 
-    /** File contents. */
-    private byte[] _content;
+    /** File contents, once materialized by content(). Never serialized:
+     *  contents are kept in the object store, keyed by _id. */
+    private transient byte[] _content;
+
+    /** Length of the file contents in bytes. */
+    private long _size;
 
     /** The file referred to by this blob. */
     private transient File _file;
@@ -0,0 +1,117 @@
+package gitlet;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Collection;
+
+/** Bloom filters over sets of file names, stored as byte arrays: the
+ *  number of hash functions, then the filter's bits. A filter answers
+ *  whether a name may be in its set, never wrongly answering no, and
+ *  wrongly answering yes for about FALSE_POSITIVE_RATE of the names
+ *  outside it.
+ *
+ *  Each name is hashed once, with 64-bit FNV-1a over its UTF-8 bytes
+ *  followed by a final mixing step, since FNV alone leaves the high bits
+ *  of short, similar names poorly mixed. The K bit positions are derived
+ *  from the two halves of that hash by enhanced double hashing, as
+ *  h1 + i * h2 + (i^3 - i) / 6 with h2 made odd. Filters are at least
+ *  MIN_BYTES long, since the positions chosen this way collide too often
+ *  in a filter of only a few bytes. The number of hash functions is
+ *  stored with each filter, so filters built under different rates may
+ *  be mixed. */
+class BloomFilter {
+
+    /** Rate of false positives used when gitlet.bloom.fpp is unset or
+     *  unusable. */
+    static final double DEFAULT_FALSE_POSITIVE_RATE = 0.01;
+
+    /** Intended rate of false positives, settable with the system
+     *  property gitlet.bloom.fpp. */
+    static final double FALSE_POSITIVE_RATE = falsePositiveRate();
+
+    /** Largest number of hash functions used. */
+    static final int MAX_HASHES = 16;
+
+    /** Least number of bytes of filter bits. */
+    static final int MIN_BYTES = 8;
+
+    /** Return the rate of false positives set by gitlet.bloom.fpp, or
+     *  DEFAULT_FALSE_POSITIVE_RATE if it is unset, not a number, or not
+     *  strictly between 0 and 1, for which filters would be sized to no
+     *  bits or to unboundedly many. */
+    private static double falsePositiveRate() {
+        String value = System.getProperty("gitlet.bloom.fpp");
+        if (value == null) {
+            return DEFAULT_FALSE_POSITIVE_RATE;
+        }
+        double rate;
+        try {
+            rate = Double.parseDouble(value);
+        } catch (NumberFormatException excp) {
+            return DEFAULT_FALSE_POSITIVE_RATE;
+        }
+        return rate > 0 && rate < 1 ? rate : DEFAULT_FALSE_POSITIVE_RATE;
+    }
+
+    /** Return a filter over NAMES sized for FALSE_POSITIVE_RATE. */
+    static byte[] of(Collection<String> names) {
+        int n = Math.max(names.size(), 1);
+        double ln2 = Math.log(2);
+        long bits = (long) Math.ceil(-n * Math.log(FALSE_POSITIVE_RATE)
+                                     / (ln2 * ln2));
+        int bytes = (int) Math.max(MIN_BYTES, (bits + 7) / 8);
+        int hashes = (int) Math.max(1, Math.min(MAX_HASHES,
+                Math.round((double) bytes * 8 / n * ln2)));
+        byte[] result = new byte[1 + bytes];
+        result[0] = (byte) hashes;
+        for (String name : names) {
+            long hash = hash(name);
+            for (int i = 0; i < hashes; i += 1) {
+                int bit = bit(hash, i, bytes * 8);
+                result[1 + bit / 8] |= 1 << (bit % 8);
+            }
+        }
+        return result;
+    }
+
+    /** Return whether NAME may be in the filter stored in the LENGTH bytes
+     *  at OFFSET in BUF. An empty filter stands for an unknown set, which
+     *  may hold any name. */
+    static boolean mightContain(ByteBuffer buf, int offset, int length,
+                                String name) {
+        if (length == 0) {
+            return true;
+        }
+        int hashes = buf.get(offset);
+        int bits = (length - 1) * 8;
+        long hash = hash(name);
+        for (int i = 0; i < hashes; i += 1) {
+            int bit = bit(hash, i, bits);
+            if ((buf.get(offset + 1 + bit / 8) & (1 << (bit % 8))) == 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /** Return the 64-bit FNV-1a hash of the UTF-8 bytes of NAME, mixed
+     *  as by MurmurHash3's finalizer. */
+    private static long hash(String name) {
+        long hash = 0xcbf29ce484222325L;
+        for (byte b : name.getBytes(StandardCharsets.UTF_8)) {
+            hash = (hash ^ (b & 0xFF)) * 0x100000001b3L;
+        }
+        hash = (hash ^ (hash >>> 33)) * 0xff51afd7ed558ccdL;
+        hash = (hash ^ (hash >>> 33)) * 0xc4ceb9fe1a85ec53L;
+        return hash ^ (hash >>> 33);
+    }
+
+    /** Return the position, among BITS bits, set by hash function I for
+     *  a name with hash HASH. */
+    private static int bit(long hash, int i, int bits) {
+        int h1 = (int) hash, h2 = (int) (hash >>> 32) | 1;
+        return Integer.remainderUnsigned(h1 + i * h2 + (i * i * i - i) / 6,
+                bits);
+    }
+
+}
@@ -0,0 +1,145 @@
+package gitlet;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.Inflater;
+import java.util.zip.InflaterInputStream;
+
+import static gitlet.Utils.error;
+
+/** The encodings in which stored objects may be written. Compressed
+ *  objects are zlib streams, so they can be told apart from uncompressed
+ *  ones by their first byte; every codec can therefore read objects
+ *  written by any other, and only the choice of codec for new writes
+ *  needs configuring. */
+enum Codec {
+
+    /** Objects are stored as they are. */
+    NONE(Deflater.NO_COMPRESSION),
+    /** Cheap compression, for objects written by everyday commands. */
+    FAST(Deflater.BEST_SPEED),
+    /** Slow, thorough compression, for objects rewritten by repacks. */
+    DENSE(Deflater.BEST_COMPRESSION);
+
+    /** First byte of every zlib stream with the default window size. */
+    static final int ZLIB_MAGIC = 0x78;
+
+    /** Size of the buffers used while compressing and decompressing. */
+    static final int BUFFER_SIZE = 1 << 13;
+
+    /** Compression is worth it if it saves a SAVING_RATIO-th of the
+     *  input. */
+    static final int SAVING_RATIO = 10;
+
+    /** A codec that compresses at deflate LEVEL. */
+    Codec(int level) {
+        _level = level;
+    }
+
+    /** Return a stream that writes objects to OUT in this encoding.
+     *  Closing it closes OUT. */
+    OutputStream encode(OutputStream out) {
+        if (this == NONE) {
+            return out;
+        }
+        return new DeflaterOutputStream(out, new Deflater(_level),
+                BUFFER_SIZE) {
+            @Override
+            public void close() throws IOException {
+                try {
+                    super.close();
+                } finally {
+                    def.end();
+                }
+            }
+        };
+    }
+
+    /** Return DATA in this encoding. */
+    byte[] encode(byte[] data) {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        try (OutputStream encoded = encode(out)) {
+            encoded.write(data);
+        } catch (IOException excp) {
+            throw error("Could not encode object: %s", excp.getMessage());
+        }
+        return out.toByteArray();
+    }
+
+    /** Return STORED, an object in any encoding, re-encoded in this codec.
+     *  An object stored uncompressed is returned as it is, since objects
+     *  are only stored so where compressing them does not pay, and so
+     *  that they can be copied out without decoding. */
+    byte[] recode(byte[] stored) {
+        if (stored.length == 0 || (stored[0] & 0xFF) != ZLIB_MAGIC) {
+            return stored;
+        }
+        return encode(decode(stored));
+    }
+
+    /** Return whether compressing SAMPLE with FAST saves at least
+     *  1 / SAVING_RATIO of it. */
+    static boolean pays(byte[] sample) {
+        Deflater deflater = new Deflater(FAST._level);
+        try {
+            deflater.setInput(sample);
+            deflater.finish();
+            byte[] buffer = new byte[BUFFER_SIZE];
+            long compressed = 0;
+            while (!deflater.finished()) {
+                compressed += deflater.deflate(buffer);
+            }
+            return compressed
+                <= sample.length - sample.length / SAVING_RATIO;
+        } finally {
+            deflater.end();
+        }
+    }
+
+    /** Return a stream over the decoded contents of IN, an object in any
+     *  encoding. Closing it closes IN. */
+    static InputStream decode(InputStream in) throws IOException {
+        InputStream buffered = new BufferedInputStream(in, BUFFER_SIZE);
+        buffered.mark(1);
+        int first = buffered.read();
+        buffered.reset();
+        if (first != ZLIB_MAGIC) {
+            return buffered;
+        }
+        return new InflaterInputStream(buffered, new Inflater(),
+                BUFFER_SIZE) {
+            @Override
+            public void close() throws IOException {
+                try {
+                    super.close();
+                } finally {
+                    inf.end();
+                }
+            }
+        };
+    }
+
+    /** Return the decoded contents of DATA, an object in any encoding. */
+    static byte[] decode(byte[] data) {
+        if (data.length == 0 || (data[0] & 0xFF) != ZLIB_MAGIC) {
+            return data;
+        }
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        try (InputStream in = decode(new ByteArrayInputStream(data))) {
+            Blob.copy(in, out);
+        } catch (IOException excp) {
+            throw error("Could not decode object: %s", excp.getMessage());
+        }
+        return out.toByteArray();
+    }
+
+    /** Deflate compression level. */
+    private final int _level;
+
+}
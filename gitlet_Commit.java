@@ -13,51 +13,41 @@ public class Commit implements Serializable {
     public Commit() {
         _message = "initial commit";
         updateTime(0);
+        _manifest = new Manifest();
         _files = new HashMap<>();
         _names = new HashMap<>();
-        _hashes = new HashSet<>();
 
-        _id = sha1(new String[] {String.valueOf(_time), _message, _files.toString()});
+        _id = hash();
     }
 
     /** Construct a commit with the current time and commit message MSG,
-     * inheriting unchanged files from PARENT. Files specified in UNTRACK
-     * and STAGED are added and removed from the default state accordingly. */
+     * inheriting unchanged files from PARENT. Files named in UNTRACK
+     * and STAGED are added and removed from the default state accordingly,
+     * the staged versions being read from ObjectStore.stagedFile.
+     * The parent's manifest is shared rather than copied, so only the
+     * untracked and staged files cost anything. */
     public Commit(Commit parent, String msg, List<String> untrack, List<String> staged) {
         this();
 
         _p = parent.id();
-        _parent = parent.update();
-        _files.putAll(parent.files());
-        _names.putAll(parent.names());
-
-        for (String fileID : untrack) {
-            Blob remove = _files.get(fileID);
-            _names.remove(remove.name());
-            _files.remove(fileID);
-            _hashes.remove(fileID);
-        }
-
-        for (String fileID : staged) {
-            File fileLocation = new File("./.gitlet/staging/" + fileID);
-            Blob stage = readObject(fileLocation, Blob.class);
-            String fileName = stage.name();
+        _parent = parent;
+        _manifest = new Manifest(parent.manifest());
 
-            Blob obsolete = _names.get(fileName);
-            if (obsolete != null) {
-                _files.remove(obsolete.id());
-                _hashes.remove(obsolete.id());
-            }
+        for (String name : untrack) {
+            _manifest.remove(name);
+        }
 
-            _names.put(fileName, stage);
-            _hashes.add(fileID);
-            _files.put(fileID, stage);
+        for (String name : staged) {
+            Blob stage =
+                ObjectFormat.readStaged(ObjectStore.stagedFile(name));
+            _manifest.put(stage.name(), stage.id(), stage.size());
         }
 
+        _names = null;
+        _files = null;
         _message = msg;
         updateTime(-1);
-        _id = sha1(new String[] {String.valueOf(_time),
-                _message, _files.toString()});
+        _id = hash();
     }
 
     /** Construct a commit with two parents. */
@@ -65,6 +55,30 @@ public class Commit implements Serializable {
                   List<String> untrack, List<String> staged) {
         this(first, msg, untrack, staged);
         _m = second.id();
+        _id = hash();
+    }
+
+    /** A stored commit with hash ID, made at TIME with message MSG, whose
+     *  parents have hashes PARENT and MERGEPARENT (null if absent) and
+     *  which tracks the files in MANIFEST. */
+    Commit(ObjectId id, long time, String msg, ObjectId parent,
+           ObjectId mergeParent, Manifest manifest) {
+        _id = id;
+        _message = msg;
+        updateTime(time);
+        _p = parent;
+        _m = mergeParent;
+        _manifest = manifest;
+    }
+
+    /** Return the hash identifying this commit: that of its time, message,
+     *  parents and the tree hash of its manifest. Costs time in proportion
+     *  to the files changed rather than the files tracked, since the tree
+     *  hash reuses the digests of the parent's unchanged nodes. */
+    private ObjectId hash() {
+        return ObjectId.of(sha1(String.valueOf(_time), _message,
+                _manifest.hash().toString(), _p == null ? "" : _p.toString(),
+                _m == null ? "" : _m.toString()));
     }
 
     /** Set the commit time to TIME. */
@@ -84,41 +98,43 @@ public class Commit implements Serializable {
 
     /** Given a file's common name, return the corresponding tracked Blob. */
     public Blob getFile(String file) {
-        return names().get(file);
+        Manifest.Entry entry = _manifest.get(file);
+        if (entry == null) {
+            return null;
+        }
+        return new Blob(entry.name(), entry.id(), entry.size());
     }
 
-    /** Return all files tracked by this commit in Blob form.
-     *  Must have been fully initialized or updated: inaccurate
-     *  for newly-serialized files. */
+    /** Return all files tracked by this commit in Blob form. */
     public List<Blob> getFiles() {
-        ArrayList<Blob> allFiles = new ArrayList<>();
-        for (String file : hashes()) {
-            allFiles.add(_files.get(file));
-        }
-        return allFiles;
+        return new ArrayList<>(names().values());
     }
 
     /** Given a Blob INPUT, compare it with the
-     * stored Blob with the same name. */
+     * stored Blob with the same name. A stored Blob committed before
+     * blobs were named by contents alone matches by its legacy hash,
+     * which is computed only when the sizes agree. */
     public boolean fileEquals(Blob input) {
-        Blob compare = names().getOrDefault(input.name(), null);
+        Manifest.Entry compare = _manifest.get(input.name());
         if (compare == null) {
             return false;
+        } else if (compare.id().equals(input.id())) {
+            return true;
         } else {
-            return compare.equals(input);
+            return compare.size() == input.size()
+                && compare.id().equals(input.legacyId());
         }
     }
 
-    /** Fill _names and _files from _hashes by converting each hash found
-     *  in the file directory to a Blob object and extracting the name
-     *  of the object. Used with transient _names and _files to avoid
-     *  serialization of all Blobs during hashing at runtime. */
+    /** Fill _names and _files from the manifest with Blobs whose contents
+     *  are loaded only on demand. Used with transient _names and _files
+     *  to avoid serialization of all Blobs during hashing at runtime, and
+     *  to avoid reading any file contents until they are needed. */
     public Commit update() {
         _names = new HashMap<>();
         _files = new HashMap<>();
-        for (String hash : hashes()) {
-            Blob file = readObject(new File(_filesPath + "/" + hash),
-                    Blob.class);
+        for (Manifest.Entry entry : _manifest.entries()) {
+            Blob file = new Blob(entry.name(), entry.id(), entry.size());
             _names.put(file.name(), file);
             _files.put(file.id(), file);
         }
@@ -126,7 +142,7 @@ public class Commit implements Serializable {
     }
 
 
-    public String id() {
+    public ObjectId id() {
         return _id;
     }
 
@@ -134,18 +150,23 @@ public class Commit implements Serializable {
         return _datetime;
     }
 
+    /** Return the commit time in ms since the Unix Epoch. */
+    public long timestamp() {
+        return _time;
+    }
+
     public String message() {
         return _message;
     }
 
-    /** Return the parent of this commit, searching through .gitlet/commits
-     * if necessary. Null for the original commit. */
+    /** Return the parent of this commit, searching through the object
+     * store if necessary. Null for the original commit. */
     public Commit parent() {
         if (_parent == null) {
             if (_p == null) {
                 return null;
             }
-            return readObject(new File(_commitPath + "/" + _p), Commit.class);
+            return ObjectStore.readCommit(_p);
         }
         return _parent;
     }
@@ -156,23 +177,35 @@ public class Commit implements Serializable {
         if (!isMerge()) {
             return null;
         } else {
-            return readObject(new File(_commitPath + "/" + _m), Commit.class);
+            return ObjectStore.readCommit(_m);
         }
     }
 
-    /** Return the parents of this commit, searching through .gitlet/commits
+    /** Return the parents of this commit, searching through the object store
      *  where necessary, and taking into account the secondary parent. */
     public Commit[] parents() {
         Commit[] parents = new Commit[2];
         if (_p != null) {
-            parents[0] = readObject(join(_commitPath, "/", _p), Commit.class);
+            parents[0] = ObjectStore.readCommit(_p);
         }
         if (_m != null) {
-            parents[1] = readObject(join(_commitPath, "/", _m), Commit.class);
+            parents[1] = ObjectStore.readCommit(_m);
         }
         return parents;
     }
 
+    /** Return the hash of this commit's parent, or null for the
+     *  original commit. */
+    public ObjectId parentId() {
+        return _p;
+    }
+
+    /** Return the hash of this commit's secondary parent, or null if it
+     *  is not the result of a merge. */
+    public ObjectId mergeParentId() {
+        return _m;
+    }
+
     /** Return the number of parents this commit has. */
     public int parentCount() {
         if (_p == null) {
@@ -189,15 +222,31 @@ public class Commit implements Serializable {
         return (_m != null);
     }
 
-    public HashSet<String> hashes() {
-        return _hashes;
+    public HashSet<ObjectId> hashes() {
+        return _manifest.ids();
+    }
+
+    /** Return the names, blob hashes and sizes of all tracked files. */
+    public Manifest manifest() {
+        return _manifest;
     }
 
-    public HashMap<String, Blob> files() {
+    /** Return the mapping from blob hashes to tracked files, building it
+     *  from the manifest on first use. Where several files have the same
+     *  contents, only one of them is listed. */
+    public HashMap<ObjectId, Blob> files() {
+        if (_files == null) {
+            update();
+        }
         return _files;
     }
 
+    /** Return the mapping from names to tracked files, building it from
+     *  the manifest on first use. */
     public HashMap<String, Blob> names() {
+        if (_names == null) {
+            update();
+        }
         return _names;
     }
 
@@ -206,11 +255,10 @@ public class Commit implements Serializable {
         return _id.equals(((Commit) obj).id());
     }
 
-    /** Path to all stored commits. */
-    private final File _commitPath = new File("./.gitlet/commits/");
-
-    /** Path to all stored files. */
-    private final File _filesPath = new File("./.gitlet/files/");
+    @Override
+    public int hashCode() {
+        return _id.hashCode();
+    }
 
     /** Commit time in ms since Unix Epoch. */
     private long _time;
@@ -219,7 +267,7 @@ public class Commit implements Serializable {
     private String _datetime;
 
     /** The (almost) unique SHA-1 hash value for this commit. */
-    private String _id;
+    private ObjectId _id;
 
     /** The commit message. */
     private String _message;
@@ -228,19 +276,19 @@ public class Commit implements Serializable {
     private transient Commit _parent;
 
     /** This commit's parent hash value. Null for the original commit. */
-    private String _p;
+    private ObjectId _p;
 
     /** This commit's secondary parent. Null for all non-merged commits. */
-    private String _m;
+    private ObjectId _m;
 
     /** The date format to be displayed by this commit in logs. */
     private transient SimpleDateFormat fmt = new SimpleDateFormat("E MMM dd k:mm:ss yyy Z");
 
-    /** The set of hash codes for all files associated with this commit. */
-    private HashSet<String> _hashes;
+    /** The name, blob hash and size of every file tracked by this commit. */
+    private Manifest _manifest;
 
     /** The mapping between this commit's file hashes and files themselves. */
-    private transient HashMap<String, Blob> _files;
+    private transient HashMap<ObjectId, Blob> _files;
 
     /** The mapping between file names and the files themselves. */
     private transient HashMap<String, Blob> _names;
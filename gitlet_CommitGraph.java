@@ -0,0 +1,643 @@
+package gitlet;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.function.Function;
+
+import static gitlet.Utils.*;
+
+/** A memory-mapped table of the shape of the commit history, so that
+ *  parents, timestamps and generation numbers can be looked up without
+ *  reading any commit. Records are fixed-width and sorted by commit hash;
+ *  parents are stored as record numbers, NONE for no parent.
+ *
+ *  A commit's generation number is one more than the largest generation
+ *  of its parents, and 1 for the initial commit, so a commit can only be
+ *  an ancestor of commits with strictly larger generation numbers.
+ *
+ *  Since records are sorted by hash, an abbreviated commit id is
+ *  resolved by a binary search for the first record that could match.
+ *  A new commit whose parents are already present is spliced into place
+ *  without rebuilding the rest of the graph.
+ *
+ *  Each commit also carries a BloomFilter of the names of the files it
+ *  changed relative to its first parent, so that a log limited to one
+ *  file reads only the commits whose filters admit that file.
+ *
+ *  Layout: MAGIC, record count, then RECORD_SIZE-byte records of a 20-byte
+ *  binary hash, first and second parent record numbers, the commit time
+ *  in ms and the generation number. Then, for each record in order, the
+ *  end of its filter within the filter data as a 4-byte offset, and then
+ *  the filter data itself. A graph written before filters, under
+ *  LEGACY_MAGIC, has neither; it is read as if every filter were empty,
+ *  matching every file, and gains filters for the commits added to it.
+ *
+ *  The graph is changed only under the repository's exclusive RepoLock,
+ *  and is remapped before each change, so that a change never starts from
+ *  a graph this reader mapped before another process rewrote it. */
+class CommitGraph {
+
+    /** Leading bytes of every commit-graph file. */
+    static final int MAGIC = 0x47475232;
+
+    /** Leading bytes of a commit-graph file without filters. */
+    static final int LEGACY_MAGIC = 0x47475248;
+
+    /** Record number standing for a missing parent. */
+    static final int NONE = -1;
+
+    /** Length of one record. */
+    static final int RECORD_SIZE = PackFile.HASH_SIZE + 4 + 4 + 8 + 4;
+
+    /** Length of the header: magic and record count. */
+    static final int HEADER_SIZE = 8;
+
+    /** Offsets of each field within a record. */
+    private static final int PARENT = PackFile.HASH_SIZE, MERGE = PARENT + 4,
+        TIME = MERGE + 4, GENERATION = TIME + 8;
+
+    /** The commit graph stored in FILE. */
+    CommitGraph(File file) {
+        _file = file;
+    }
+
+    /** Return the number of commits in the graph. */
+    int size() {
+        ByteBuffer graph = graph();
+        return graph == null ? 0 : graph.getInt(4);
+    }
+
+    /** Return the record number of commit ID, or NONE if it is not in
+     *  the graph. */
+    int find(ObjectId id) {
+        int k = lowerBound(id);
+        return k < size() && id(k).equals(id) ? k : NONE;
+    }
+
+    /** Return the record numbers of every commit whose hex id starts with
+     *  PREFIX, in order. The matches are found by a binary search for the
+     *  least id with that prefix, followed by a scan over the records
+     *  that share it. */
+    List<Integer> matching(String prefix) {
+        ArrayList<Integer> result = new ArrayList<>();
+        String lower = prefix.toLowerCase();
+        StringBuilder least = new StringBuilder(lower);
+        while (least.length() < UID_LENGTH) {
+            least.append('0');
+        }
+        if (!ObjectId.isId(least.toString())) {
+            return result;
+        }
+        for (int k = lowerBound(ObjectId.of(least.toString())), n = size();
+             k < n && id(k).toString().startsWith(lower); k += 1) {
+            result.add(k);
+        }
+        return result;
+    }
+
+    /** Return the number of the first record whose hash is not less
+     *  than ID's, or size() if there is none. */
+    private int lowerBound(ObjectId id) {
+        ByteBuffer graph = graph();
+        if (graph == null) {
+            return 0;
+        }
+        byte[] hash = id.toBytes();
+        byte[] probe = new byte[PackFile.HASH_SIZE];
+        int lo = 0, hi = size();
+        while (lo < hi) {
+            int mid = (lo + hi) >>> 1;
+            graph.get(HEADER_SIZE + mid * RECORD_SIZE, probe);
+            if (Arrays.compareUnsigned(probe, hash) < 0) {
+                lo = mid + 1;
+            } else {
+                hi = mid;
+            }
+        }
+        return lo;
+    }
+
+    /** Return whether commit ID is in the graph. */
+    boolean contains(ObjectId id) {
+        return find(id) != NONE;
+    }
+
+    /** Return the hash of commit number K. */
+    ObjectId id(int k) {
+        byte[] hash = new byte[PackFile.HASH_SIZE];
+        graph().get(HEADER_SIZE + k * RECORD_SIZE, hash);
+        return ObjectId.of(hash);
+    }
+
+    /** Return the record number of the first parent of commit K, or NONE
+     *  for the initial commit. */
+    int parent(int k) {
+        return graph().getInt(HEADER_SIZE + k * RECORD_SIZE + PARENT);
+    }
+
+    /** Return the record number of the second parent of commit K, or NONE
+     *  if it is not a merge. */
+    int mergeParent(int k) {
+        return graph().getInt(HEADER_SIZE + k * RECORD_SIZE + MERGE);
+    }
+
+    /** Return whether commit K is the result of a merge. */
+    boolean isMerge(int k) {
+        return mergeParent(k) != NONE;
+    }
+
+    /** Return the commit time of commit K in ms since the Unix Epoch. */
+    long time(int k) {
+        return graph().getLong(HEADER_SIZE + k * RECORD_SIZE + TIME);
+    }
+
+    /** Return the generation number of commit K. */
+    int generation(int k) {
+        return graph().getInt(HEADER_SIZE + k * RECORD_SIZE + GENERATION);
+    }
+
+    /** Return whether commit K may have changed the file NAME relative to
+     *  its first parent. False answers are always right; true answers are
+     *  wrong for about BloomFilter.FALSE_POSITIVE_RATE of unchanged
+     *  files, and always given for commits recorded without a filter. */
+    boolean mayChange(int k, String name) {
+        ByteBuffer graph = graph();
+        if (!_filters) {
+            return true;
+        }
+        int start = filterStart(k);
+        return BloomFilter.mightContain(graph, filterData() + start,
+                filterEnd(k) - start, name);
+    }
+
+    /** Return the ids of the commits that changed the file NAME, walking
+     *  the first parents of commit HEAD from HEAD down. Only commits whose
+     *  filters admit NAME are read, to compare NAME with their parents'.
+     *  Commits the graph does not hold yet, above the first that it does,
+     *  are all read. The graph is never written, so that a log may run
+     *  under a shared lock. */
+    List<ObjectId> log(ObjectId head, String name) {
+        ArrayList<ObjectId> result = new ArrayList<>();
+        ObjectId id = head;
+        int k = find(id);
+        while (k == NONE && id != null) {
+            Commit commit = ObjectStore.readCommit(id);
+            ObjectId parent = commit.parentId();
+            if (changed(commit.manifest().get(name), parent == null ? null
+                    : ObjectStore.readCommit(parent).manifest().get(name))) {
+                result.add(id);
+            }
+            id = parent;
+            k = id == null ? NONE : find(id);
+        }
+        for (; k != NONE; k = parent(k)) {
+            if (!mayChange(k, name)) {
+                continue;
+            }
+            Manifest.Entry now =
+                ObjectStore.readCommit(id(k)).manifest().get(name);
+            Manifest.Entry before = parent(k) == NONE ? null
+                : ObjectStore.readCommit(id(parent(k))).manifest().get(name);
+            if (changed(now, before)) {
+                result.add(id(k));
+            }
+        }
+        return result;
+    }
+
+    /** Return whether a file tracked as NOW differs from the same file
+     *  tracked as BEFORE, either being null where it is not tracked. */
+    private static boolean changed(Manifest.Entry now,
+                                   Manifest.Entry before) {
+        return now == null ? before != null
+            : before == null || !now.id().equals(before.id());
+    }
+
+    /** Return whether commit number A is an ancestor of, or the same as,
+     *  commit number B. Commits whose generation is at most that of A
+     *  cannot lead to A and are not explored. */
+    boolean isAncestor(int a, int b) {
+        int floor = generation(a);
+        boolean[] seen = new boolean[size()];
+        ArrayDeque<Integer> stack = new ArrayDeque<>();
+        stack.push(b);
+        while (!stack.isEmpty()) {
+            int k = stack.pop();
+            if (k == a) {
+                return true;
+            }
+            if (seen[k] || generation(k) <= floor) {
+                continue;
+            }
+            seen[k] = true;
+            for (int p : new int[] {parent(k), mergeParent(k)}) {
+                if (p != NONE) {
+                    stack.push(p);
+                }
+            }
+        }
+        return false;
+    }
+
+    /** Return whether commit A is an ancestor of, or the same as, commit
+     *  B, which the graph need not hold yet. Commits above those the graph
+     *  holds are read from the object store, and the graph is not written,
+     *  so that this may be asked under a shared lock. */
+    boolean isAncestor(ObjectId a, ObjectId b) {
+        int k = find(a);
+        HashSet<ObjectId> seen = new HashSet<>();
+        ArrayDeque<ObjectId> queue = new ArrayDeque<>();
+        queue.add(b);
+        while (!queue.isEmpty()) {
+            ObjectId id = queue.poll();
+            if (id.equals(a)) {
+                return true;
+            } else if (!seen.add(id)) {
+                continue;
+            }
+            int j = find(id);
+            if (j != NONE) {
+                if (k != NONE && isAncestor(k, j)) {
+                    return true;
+                }
+                continue;
+            }
+            Commit commit = ObjectStore.readCommit(id);
+            for (ObjectId parent : new ObjectId[] {commit.parentId(),
+                                                   commit.mergeParentId()}) {
+                if (parent != null) {
+                    queue.add(parent);
+                }
+            }
+        }
+        return false;
+    }
+
+    /** Return the record numbers of commit K and all its ancestors,
+     *  each exactly once, in the order of a breadth-first walk. */
+    ArrayList<Integer> ancestors(int k) {
+        ArrayList<Integer> result = new ArrayList<>();
+        boolean[] seen = new boolean[size()];
+        ArrayDeque<Integer> queue = new ArrayDeque<>();
+        queue.add(k);
+        seen[k] = true;
+        while (!queue.isEmpty()) {
+            int next = queue.poll();
+            result.add(next);
+            for (int p : new int[] {parent(next), mergeParent(next)}) {
+                if (p != NONE && !seen[p]) {
+                    seen[p] = true;
+                    queue.add(p);
+                }
+            }
+        }
+        return result;
+    }
+
+    /** Add COMMIT to the graph, along with any of its ancestors that are
+     *  missing from it, and rewrite the graph file. Ancestors are read
+     *  from the object store only if the graph does not already hold
+     *  them, so only the first call in an existing repository walks the
+     *  whole history. */
+    void add(Commit commit) {
+        if (!contains(commit.id())) {
+            add(Collections.singletonList(commit));
+        }
+    }
+
+    /** Add all of COMMITS to the graph in one rewrite of the graph file,
+     *  along with any missing ancestors. Ancestors are taken from COMMITS
+     *  where possible, and otherwise read from the object store. */
+    void add(Collection<Commit> commits) {
+        add(commits, ObjectStore::readCommit);
+    }
+
+    /** Add all of COMMITS to the graph as for add(COMMITS), reading
+     *  ancestors not among them with READER, which must read from the
+     *  repository this graph belongs to. */
+    void add(Collection<Commit> commits, Function<ObjectId, Commit> reader) {
+        _mapped = null;
+        if (commits.size() == 1) {
+            Commit commit = commits.iterator().next();
+            if (contains(commit.id()) || insert(commit, reader)) {
+                return;
+            }
+        }
+        HashMap<ObjectId, Commit> batch = new HashMap<>();
+        for (Commit commit : commits) {
+            batch.put(commit.id(), commit);
+        }
+        HashMap<ObjectId, Node> nodes = nodes();
+
+        HashMap<ObjectId, Commit> added = new HashMap<>();
+        ArrayDeque<Commit> queue = new ArrayDeque<>(commits);
+        while (!queue.isEmpty()) {
+            Commit next = queue.poll();
+            if (nodes.containsKey(next.id()) || added.containsKey(next.id())) {
+                continue;
+            }
+            added.put(next.id(), next);
+            for (ObjectId parent : new ObjectId[] {next.parentId(),
+                                                   next.mergeParentId()}) {
+                if (parent != null && !nodes.containsKey(parent)
+                        && !added.containsKey(parent)) {
+                    queue.add(batch.containsKey(parent) ? batch.get(parent)
+                            : reader.apply(parent));
+                }
+            }
+        }
+
+        if (added.isEmpty()) {
+            return;
+        }
+        ArrayDeque<Commit> stack = new ArrayDeque<>();
+        for (Commit start : added.values()) {
+            stack.push(start);
+            while (!stack.isEmpty()) {
+                Commit next = stack.peek();
+                if (nodes.containsKey(next.id())) {
+                    stack.pop();
+                    continue;
+                }
+                Node node = new Node(next.id(), next.timestamp(), 1);
+                node.parent = next.parentId();
+                node.merge = next.mergeParentId();
+                boolean ready = true;
+                for (ObjectId parent
+                         : new ObjectId[] {node.parent, node.merge}) {
+                    if (parent == null) {
+                        continue;
+                    } else if (nodes.containsKey(parent)) {
+                        node.generation = Math.max(node.generation,
+                                nodes.get(parent).generation + 1);
+                    } else {
+                        stack.push(added.get(parent));
+                        ready = false;
+                    }
+                }
+                if (ready) {
+                    Commit parent = node.parent == null ? null
+                        : added.containsKey(node.parent)
+                        ? added.get(node.parent)
+                        : reader.apply(node.parent);
+                    node.filter = changes(next, parent);
+                    nodes.put(node.id, node);
+                    stack.pop();
+                }
+            }
+        }
+        write(new ArrayList<>(nodes.values()));
+    }
+
+    /** Remove every commit but those in KEEP from the graph, which must
+     *  hold the parents of each commit it holds. */
+    void retain(Set<ObjectId> keep) {
+        _mapped = null;
+        HashMap<ObjectId, Node> nodes = nodes();
+        if (nodes.keySet().retainAll(keep)) {
+            write(new ArrayList<>(nodes.values()));
+        }
+    }
+
+    /** Return a node for every commit in the graph, by hash. */
+    private HashMap<ObjectId, Node> nodes() {
+        HashMap<ObjectId, Node> nodes = new HashMap<>();
+        for (int k = 0; k < size(); k += 1) {
+            Node node = new Node(id(k), time(k), generation(k));
+            node.parent = parent(k) == NONE ? null : id(parent(k));
+            node.merge = mergeParent(k) == NONE ? null : id(mergeParent(k));
+            node.filter = filter(k);
+            nodes.put(node.id, node);
+        }
+        return nodes;
+    }
+
+    /** Add COMMIT to the graph by splicing its record into the mapped
+     *  records at its sorted position, renumbering the parent fields that
+     *  point past it, provided that its parents are already in the graph.
+     *  Return false, changing nothing, if they are not. This is the usual
+     *  case of a single new commit, and it avoids rebuilding the graph.
+     *  Its first parent is read with READER. */
+    private boolean insert(Commit commit,
+                           Function<ObjectId, Commit> reader) {
+        int parent = NONE, merge = NONE, generation = 1;
+        if (commit.parentId() != null) {
+            parent = find(commit.parentId());
+            if (parent == NONE) {
+                return false;
+            }
+            generation = generation(parent) + 1;
+        }
+        if (commit.mergeParentId() != null) {
+            merge = find(commit.mergeParentId());
+            if (merge == NONE) {
+                return false;
+            }
+            generation = Math.max(generation, generation(merge) + 1);
+        }
+        byte[] filter = changes(commit, commit.parentId() == null ? null
+                : reader.apply(commit.parentId()));
+        int n = size(), at = lowerBound(commit.id());
+        ByteBuffer graph = graph();
+        boolean copy = n > 0 && _filters;
+        int data = copy ? filterEnd(n - 1) : 0;
+        ByteBuffer out = ByteBuffer.allocate(HEADER_SIZE
+                + (n + 1) * (RECORD_SIZE + 4) + data + filter.length);
+        out.putInt(MAGIC).putInt(n + 1);
+        byte[] hash = new byte[PackFile.HASH_SIZE];
+        for (int k = 0; k <= n; k += 1) {
+            if (k == at) {
+                out.put(commit.id().toBytes())
+                    .putInt(renumber(parent, at)).putInt(renumber(merge, at))
+                    .putLong(commit.timestamp()).putInt(generation);
+            }
+            if (k < n) {
+                graph.get(HEADER_SIZE + k * RECORD_SIZE, hash);
+                out.put(hash).putInt(renumber(parent(k), at))
+                    .putInt(renumber(mergeParent(k), at))
+                    .putLong(time(k)).putInt(generation(k));
+            }
+        }
+        int end = 0;
+        for (int k = 0; k <= n; k += 1) {
+            if (k == at) {
+                end += filter.length;
+                out.putInt(end);
+            }
+            if (k < n) {
+                end += filterLength(k);
+                out.putInt(end);
+            }
+        }
+        int split = copy ? filterStart(at) : 0;
+        if (copy) {
+            out.put(graph.slice(filterData(), split));
+        }
+        out.put(filter);
+        if (copy) {
+            out.put(graph.slice(filterData() + split, data - split));
+        }
+        replace(out.array());
+        return true;
+    }
+
+    /** Return the filter of the files COMMIT changed relative to PARENT,
+     *  which is null for the initial commit. */
+    private static byte[] changes(Commit commit, Commit parent) {
+        return BloomFilter.of(commit.manifest().changes(
+                parent == null ? null : parent.manifest()));
+    }
+
+    /** Return the offset of the filter data within the graph. */
+    private int filterData() {
+        return HEADER_SIZE + size() * (RECORD_SIZE + 4);
+    }
+
+    /** Return the end of commit K's filter within the filter data. */
+    private int filterEnd(int k) {
+        return graph().getInt(HEADER_SIZE + size() * RECORD_SIZE + 4 * k);
+    }
+
+    /** Return the start of commit K's filter within the filter data. */
+    private int filterStart(int k) {
+        return k == 0 ? 0 : filterEnd(k - 1);
+    }
+
+    /** Return the length of commit K's filter, 0 if it has none. */
+    private int filterLength(int k) {
+        return _filters ? filterEnd(k) - filterStart(k) : 0;
+    }
+
+    /** Return a copy of commit K's filter, empty if it has none. */
+    private byte[] filter(int k) {
+        byte[] result = new byte[filterLength(k)];
+        if (result.length > 0) {
+            graph().get(filterData() + filterStart(k), result);
+        }
+        return result;
+    }
+
+    /** Return record number K as it becomes once a record is inserted at
+     *  position AT. */
+    private static int renumber(int k, int at) {
+        return k != NONE && k >= at ? k + 1 : k;
+    }
+
+    /** Replace the graph file with one holding NODES, writing it beside
+     *  the old one and renaming it into place. */
+    private void write(ArrayList<Node> nodes) {
+        nodes.sort((a, b) -> a.id.compareTo(b.id));
+        HashMap<ObjectId, Integer> numbers = new HashMap<>();
+        for (int k = 0; k < nodes.size(); k += 1) {
+            numbers.put(nodes.get(k).id, k);
+        }
+        int data = 0;
+        for (Node node : nodes) {
+            data += node.filter.length;
+        }
+        ByteBuffer out = ByteBuffer.allocate(HEADER_SIZE
+                + nodes.size() * (RECORD_SIZE + 4) + data);
+        out.putInt(MAGIC).putInt(nodes.size());
+        for (Node node : nodes) {
+            out.put(node.id.toBytes())
+                .putInt(node.parent == null ? NONE : numbers.get(node.parent))
+                .putInt(node.merge == null ? NONE : numbers.get(node.merge))
+                .putLong(node.time).putInt(node.generation);
+        }
+        int end = 0;
+        for (Node node : nodes) {
+            end += node.filter.length;
+            out.putInt(end);
+        }
+        for (Node node : nodes) {
+            out.put(node.filter);
+        }
+        replace(out.array());
+    }
+
+    /** Replace the graph file with CONTENTS, writing them to a temporary
+     *  file of this writer's own beside the old file and renaming it into
+     *  place. */
+    private void replace(byte[] contents) {
+        File temp = ObjectStore.tempFile(_file);
+        try {
+            Files.write(temp.toPath(), contents);
+            Files.move(temp.toPath(), _file.toPath(),
+                    StandardCopyOption.ATOMIC_MOVE,
+                    StandardCopyOption.REPLACE_EXISTING);
+        } catch (IOException excp) {
+            throw error("Could not write commit graph: %s",
+                    excp.getMessage());
+        }
+        _mapped = null;
+    }
+
+    /** Return the mapped graph, mapping it on first use, or null if there
+     *  is no graph file yet. */
+    private ByteBuffer graph() {
+        MappedByteBuffer result = _mapped;
+        if (result == null && _file.exists()) {
+            try (FileChannel channel = FileChannel.open(_file.toPath())) {
+                result = channel.map(FileChannel.MapMode.READ_ONLY,
+                        0, channel.size());
+            } catch (IOException excp) {
+                throw error("Could not map commit graph: %s",
+                        excp.getMessage());
+            }
+            int magic = result.getInt(0);
+            if (magic != MAGIC && magic != LEGACY_MAGIC) {
+                throw error("Corrupt commit graph %s.", _file);
+            }
+            _filters = magic == MAGIC;
+            _mapped = result;
+        }
+        return result;
+    }
+
+    /** One commit while the graph is being rebuilt. */
+    private static class Node {
+
+        /** A commit with hash ID, commit TIME and GENERATION number. */
+        Node(ObjectId id, long time, int generation) {
+            this.id = id;
+            this.time = time;
+            this.generation = generation;
+        }
+
+        /** Commit hash. */
+        private final ObjectId id;
+        /** Commit time in ms since the Unix Epoch. */
+        private final long time;
+        /** Generation number. */
+        private int generation;
+        /** Parent hashes. Null where absent. */
+        private ObjectId parent, merge;
+        /** Filter of changed files, empty if unknown. */
+        private byte[] filter;
+    }
+
+    /** The graph file. */
+    private final File _file;
+
+    /** The graph, once mapped. Null until first use. Published only once
+     *  checked, and after _filters, for threads reading it at once. */
+    private volatile MappedByteBuffer _mapped;
+
+    /** Whether the mapped graph has filters. */
+    private boolean _filters;
+
+}
@@ -0,0 +1,144 @@
+package gitlet;
+
+import java.io.ByteArrayOutputStream;
+import java.util.HashMap;
+
+import static gitlet.Utils.error;
+
+/** Binary deltas between two versions of a file. A delta is a sequence
+ *  of instructions that rebuild the target from the base: COPY, followed
+ *  by a base offset and a length, and INSERT, followed by a length and
+ *  that many literal bytes. All numbers are unsigned varints.
+ *
+ *  Matches are found by indexing the base in BLOCK-byte blocks and
+ *  looking up every position of the target, then extending each hit in
+ *  both directions. */
+class Delta {
+
+    /** Tag of a copy-from-base instruction. */
+    static final int COPY = 1;
+
+    /** Tag of a literal-insert instruction. */
+    static final int INSERT = 2;
+
+    /** Length of the blocks of the base that are indexed. */
+    static final int BLOCK = 16;
+
+    /** Return a delta that rebuilds TARGET from BASE. */
+    static byte[] compute(byte[] base, byte[] target) {
+        HashMap<Integer, Integer> blocks = new HashMap<>();
+        for (int i = 0; i + BLOCK <= base.length; i += BLOCK) {
+            blocks.putIfAbsent(hash(base, i), i);
+        }
+
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        int pending = 0;
+        int i = 0;
+        while (i + BLOCK <= target.length) {
+            Integer at = blocks.get(hash(target, i));
+            if (at == null || !matches(base, at, target, i, BLOCK)) {
+                i += 1;
+                continue;
+            }
+            int s = at, t = i;
+            while (s > 0 && t > pending && base[s - 1] == target[t - 1]) {
+                s -= 1;
+                t -= 1;
+            }
+            int length = i - t + BLOCK;
+            while (s + length < base.length && t + length < target.length
+                    && base[s + length] == target[t + length]) {
+                length += 1;
+            }
+            insert(out, target, pending, t);
+            out.write(COPY);
+            writeVarint(out, s);
+            writeVarint(out, length);
+            i = t + length;
+            pending = i;
+        }
+        insert(out, target, pending, target.length);
+        return out.toByteArray();
+    }
+
+    /** Return the result of applying DELTA to BASE, which is SIZE bytes
+     *  long. */
+    static byte[] apply(byte[] base, byte[] delta, long size) {
+        byte[] result = new byte[(int) size];
+        int[] pos = new int[] {0};
+        int written = 0;
+        while (pos[0] < delta.length) {
+            int op = delta[pos[0]++];
+            if (op == COPY) {
+                int offset = (int) readVarint(delta, pos);
+                int length = (int) readVarint(delta, pos);
+                System.arraycopy(base, offset, result, written, length);
+                written += length;
+            } else if (op == INSERT) {
+                int length = (int) readVarint(delta, pos);
+                System.arraycopy(delta, pos[0], result, written, length);
+                pos[0] += length;
+                written += length;
+            } else {
+                throw error("Corrupt delta instruction %d.", op);
+            }
+        }
+        if (written != size) {
+            throw error("Delta produced %d bytes, expected %d.", written, size);
+        }
+        return result;
+    }
+
+    /** Write an INSERT of TARGET[FROM..TO) to OUT, if non-empty. */
+    private static void insert(ByteArrayOutputStream out, byte[] target,
+                               int from, int to) {
+        if (from < to) {
+            out.write(INSERT);
+            writeVarint(out, to - from);
+            out.write(target, from, to - from);
+        }
+    }
+
+    /** Return whether A[I..I+LEN) equals B[J..J+LEN). */
+    private static boolean matches(byte[] a, int i, byte[] b, int j,
+                                   int len) {
+        for (int k = 0; k < len; k += 1) {
+            if (a[i + k] != b[j + k]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /** Return a hash of the BLOCK bytes of DATA starting at FROM. */
+    private static int hash(byte[] data, int from) {
+        int h = 0;
+        for (int k = from; k < from + BLOCK; k += 1) {
+            h = 31 * h + data[k];
+        }
+        return h;
+    }
+
+    /** Write the non-negative VALUE to OUT as an unsigned varint. */
+    static void writeVarint(ByteArrayOutputStream out, long value) {
+        while ((value & ~0x7FL) != 0) {
+            out.write((int) ((value & 0x7F) | 0x80));
+            value >>>= 7;
+        }
+        out.write((int) value);
+    }
+
+    /** Return the unsigned varint in DATA at POS[0], advancing POS[0]
+     *  past it. */
+    static long readVarint(byte[] data, int[] pos) {
+        long result = 0;
+        for (int shift = 0; ; shift += 7) {
+            byte b = data[pos[0]++];
+            result |= (long) (b & 0x7F) << shift;
+            if ((b & 0x80) == 0) {
+                return result;
+            }
+        }
+    }
+
+}
@@ -0,0 +1,611 @@
+package gitlet;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.List;
+import java.util.function.Supplier;
+
+/** Line and byte differences between two versions of a file, and their
+ *  output as unified diffs.
+ *
+ *  Neither version is split into line objects. Each line is instead
+ *  interned as a small integer, equal for equal lines, so that both
+ *  versions become int arrays and every comparison is a single integer
+ *  comparison. Bytes are their own integers.
+ *
+ *  Differences are found with histogram diff: after trimming the common
+ *  start and end of a region, the element of the new version that occurs
+ *  least often in the old one, and at most MAX_CHAIN times, is matched
+ *  with its first occurrence there, the match is extended both ways, and
+ *  the regions on either side are diffed in turn. Where every common
+ *  element is too frequent to make a good anchor, as in runs of blank or
+ *  brace-only lines, the region is diffed with Myers' O(ND) algorithm in
+ *  its linear-space form, which finds the middle snake of a shortest
+ *  edit script from both ends at once and recurses on either side of it.
+ *
+ *  Edits are produced lazily and in order, a region at a time, and
+ *  write() writes each hunk as soon as the next edit is found to lie
+ *  beyond its trailing context, so the first hunks of a large diff
+ *  appear before the rest are found and the edits are never all held at
+ *  once. Both versions are still read whole, since interning their
+ *  lines and choosing anchors need all of each. */
+class Diff {
+
+    /** Lines of context around each hunk. */
+    static final int CONTEXT = 3;
+
+    /** Most occurrences of an element in the old region for it to serve
+     *  as a histogram anchor. */
+    static final int MAX_CHAIN = 64;
+
+    /** Number of leading bytes examined to decide that a file is
+     *  binary. */
+    static final int BINARY_PROBE = 8000;
+
+    /** A change replacing elements [BEGINA, ENDA) of the old version with
+     *  elements [BEGINB, ENDB) of the new one. */
+    static class Edit {
+        /** An edit replacing [BEGINA, ENDA) with [BEGINB, ENDB). */
+        Edit(int beginA, int endA, int beginB, int endB) {
+            this.beginA = beginA;
+            this.endA = endA;
+            this.beginB = beginB;
+            this.endB = endB;
+        }
+
+        @Override
+        public String toString() {
+            return String.format("%d,%d -> %d,%d", beginA, endA,
+                    beginB, endB);
+        }
+
+        /** Bounds in the old version. */
+        final int beginA, endA;
+        /** Bounds in the new version. */
+        final int beginB, endB;
+    }
+
+    /** The lines of a file, held as offsets into its contents. Each line
+     *  includes its terminating newline, if it has one. */
+    static class Lines {
+        /** The lines of DATA. */
+        Lines(byte[] data) {
+            _data = data;
+            int n = 0;
+            for (byte b : data) {
+                if (b == '\n') {
+                    n += 1;
+                }
+            }
+            if (data.length > 0 && data[data.length - 1] != '\n') {
+                n += 1;
+            }
+            _starts = new int[n + 1];
+            _hashes = new int[n];
+            int line = 0, hash = 0;
+            for (int i = 0; i < data.length; i += 1) {
+                hash = 31 * hash + data[i];
+                if (data[i] == '\n' || i == data.length - 1) {
+                    _hashes[line] = hash;
+                    line += 1;
+                    _starts[line] = i + 1;
+                    hash = 0;
+                }
+            }
+        }
+
+        /** Return the number of lines. */
+        int size() {
+            return _hashes.length;
+        }
+
+        /** Return whether line I of this and line J of OTHER are equal. */
+        boolean same(int i, Lines other, int j) {
+            return _hashes[i] == other._hashes[j]
+                && Arrays.equals(_data, _starts[i], _starts[i + 1],
+                        other._data, other._starts[j], other._starts[j + 1]);
+        }
+
+        /** Write lines [FROM, TO) to OUT, each preceded by PREFIX. A last
+         *  line without a newline is marked as such. */
+        void write(OutputStream out, char prefix, int from, int to)
+            throws IOException {
+            for (int i = from; i < to; i += 1) {
+                out.write(prefix);
+                out.write(_data, _starts[i], _starts[i + 1] - _starts[i]);
+                if (!endsLine(i)) {
+                    out.write(NO_NEWLINE);
+                }
+            }
+        }
+
+        /** Write the raw bytes of lines [FROM, TO) to OUT. */
+        void copy(OutputStream out, int from, int to) throws IOException {
+            out.write(_data, _starts[from], _starts[to] - _starts[from]);
+        }
+
+        /** Return whether line I ends with a newline. */
+        boolean endsLine(int i) {
+            return _data[_starts[i + 1] - 1] == '\n';
+        }
+
+        /** Return whether lines [FROM, TO) of this and lines [OFROM, OTO)
+         *  of OTHER are the same bytes. */
+        boolean same(int from, int to, Lines other, int ofrom, int oto) {
+            return Arrays.equals(_data, _starts[from], _starts[to],
+                    other._data, other._starts[ofrom], other._starts[oto]);
+        }
+
+        /** The file's contents. */
+        private final byte[] _data;
+        /** Offset of each line, then the length of the contents. */
+        private final int[] _starts;
+        /** Hash of each line. */
+        private final int[] _hashes;
+    }
+
+    /** Return the line edits that turn A into B. */
+    static List<Edit> lines(Lines a, Lines b) {
+        int[][] ids = intern(a, b);
+        return new Diff(ids[0], ids[1]).edits();
+    }
+
+    /** Return the byte edits that turn A into B. */
+    static List<Edit> bytes(byte[] a, byte[] b) {
+        return new Diff(widen(a), widen(b)).edits();
+    }
+
+    /** Return the edits that turn A into B, using only Myers' algorithm,
+     *  without the histogram fast path. */
+    static List<Edit> myers(Lines a, Lines b) {
+        int[][] ids = intern(a, b);
+        Diff diff = new Diff(ids[0], ids[1]);
+        diff._histogram = false;
+        return diff.edits();
+    }
+
+    /** Write to OUT the unified diff turning OLD, named NAMEA, into NEW,
+     *  named NAMEB; either may be null for a file that does not exist.
+     *  Write nothing if they are equal. */
+    static void write(OutputStream out, String nameA, byte[] old,
+                      String nameB, byte[] now) throws IOException {
+        if (old != null && now != null && Arrays.equals(old, now)) {
+            return;
+        }
+        header(out, "diff --git a/" + (nameA == null ? nameB : nameA)
+                + " b/" + (nameB == null ? nameA : nameB));
+        if (isBinary(old) || isBinary(now)) {
+            header(out, "Binary files " + label("a/", nameA, old)
+                    + " and " + label("b/", nameB, now) + " differ");
+            return;
+        }
+        header(out, "--- " + label("a/", nameA, old));
+        header(out, "+++ " + label("b/", nameB, now));
+        Lines a = new Lines(old == null ? new byte[0] : old),
+            b = new Lines(now == null ? new byte[0] : now);
+        int[][] ids = intern(a, b);
+        writeHunks(out, a, b, new Diff(ids[0], ids[1])::next, CONTEXT);
+    }
+
+    /** Write to OUT a unified diff of every file that COMMIT tracks and
+     *  that differs in, or is missing from, the directory DIR, hashing
+     *  working files through INDEX, as the diff command shows them.
+     *  INDEX is updated but not saved. */
+    static void working(Commit commit, File dir, StatIndex index,
+                        OutputStream out) throws IOException {
+        ArrayList<Manifest.Entry> entries = commit.manifest().entries();
+        entries.sort((x, y) -> x.name().compareTo(y.name()));
+        for (Manifest.Entry entry : entries) {
+            File file = new File(dir, entry.name());
+            if (!file.exists()) {
+                write(out, entry.name(), ObjectStore.blobContents(entry.id()),
+                        null, null);
+            } else if (!index.blob(file).id().equals(entry.id())) {
+                write(out, entry.name(), ObjectStore.blobContents(entry.id()),
+                        entry.name(), Files.readAllBytes(file.toPath()));
+            }
+        }
+    }
+
+    /** Write to OUT a unified diff of every file changed between commits
+     *  OLD and NOW, in name order. */
+    static void between(Commit old, Commit now, OutputStream out)
+        throws IOException {
+        ArrayList<String> names = now.manifest().changes(old.manifest());
+        names.sort(null);
+        for (String name : names) {
+            Manifest.Entry a = old.manifest().get(name),
+                b = now.manifest().get(name);
+            write(out, a == null ? null : name,
+                    a == null ? null : ObjectStore.blobContents(a.id()),
+                    b == null ? null : name,
+                    b == null ? null : ObjectStore.blobContents(b.id()));
+        }
+    }
+
+    /** Write to OUT the hunks of EDITS between A and B with CONTEXT lines
+     *  around each. */
+    static void writeHunks(OutputStream out, Lines a, Lines b,
+                           List<Edit> edits, int context) throws IOException {
+        Iterator<Edit> iter = edits.iterator();
+        writeHunks(out, a, b, () -> iter.hasNext() ? iter.next() : null,
+                context);
+    }
+
+    /** Write to OUT the hunks between A and B with CONTEXT lines around
+     *  each, taking their edits in order from EDITS, which supplies null
+     *  after the last. Each hunk is written once the next edit is known
+     *  to be too far away to join it. */
+    private static void writeHunks(OutputStream out, Lines a, Lines b,
+                                   Supplier<Edit> edits, int context)
+        throws IOException {
+        ArrayList<Edit> hunk = new ArrayList<>();
+        for (Edit edit = edits.get(); edit != null; edit = edits.get()) {
+            if (!hunk.isEmpty()
+                && edit.beginA - hunk.get(hunk.size() - 1).endA
+                    > 2 * context) {
+                writeHunk(out, a, b, hunk, context);
+                hunk.clear();
+            }
+            hunk.add(edit);
+        }
+        if (!hunk.isEmpty()) {
+            writeHunk(out, a, b, hunk, context);
+        }
+    }
+
+    /** Write to OUT the one hunk made of EDITS between A and B, with
+     *  CONTEXT lines around it. */
+    private static void writeHunk(OutputStream out, Lines a, Lines b,
+                                  List<Edit> edits, int context)
+        throws IOException {
+        Edit start = edits.get(0), end = edits.get(edits.size() - 1);
+        int fromA = Math.max(0, start.beginA - context),
+            fromB = Math.max(0, start.beginB - context),
+            toA = Math.min(a.size(), end.endA + context),
+            toB = Math.min(b.size(), end.endB + context);
+        header(out, String.format("@@ -%s +%s @@", range(fromA, toA),
+                range(fromB, toB)));
+        int at = fromA;
+        for (Edit edit : edits) {
+            a.write(out, ' ', at, edit.beginA);
+            a.write(out, '-', edit.beginA, edit.endA);
+            b.write(out, '+', edit.beginB, edit.endB);
+            at = edit.endA;
+        }
+        a.write(out, ' ', at, toA);
+    }
+
+    /** A differ of the element sequences A and B. */
+    private Diff(int[] a, int[] b) {
+        _a = a;
+        _b = b;
+        _edits = new ArrayDeque<>();
+        _regions = new ArrayDeque<>();
+        _regions.push(new int[] {0, a.length, 0, b.length});
+        _histogram = true;
+    }
+
+    /** Return the edits turning _A into _B, in order. */
+    private List<Edit> edits() {
+        ArrayList<Edit> result = new ArrayList<>();
+        for (Edit edit = next(); edit != null; edit = next()) {
+            result.add(edit);
+        }
+        return result;
+    }
+
+    /** Return the next edit turning _A into _B, in order, diffing only
+     *  as many regions as it takes to find it, or null if there are no
+     *  more. */
+    private Edit next() {
+        while (_edits.isEmpty() && !_regions.isEmpty()) {
+            int[] r = _regions.pop();
+            diff(r[0], r[1], r[2], r[3]);
+        }
+        return _edits.poll();
+    }
+
+    /** Diff region [ALO, AHI) of _A against [BLO, BHI) of _B, either
+     *  adding its edits or pushing onto _REGIONS, for later, the smaller
+     *  regions it splits into, leftmost on top. Every region left on
+     *  _REGIONS lies after it. */
+    private void diff(int aLo, int aHi, int bLo, int bHi) {
+        while (aLo < aHi && bLo < bHi && _a[aLo] == _b[bLo]) {
+            aLo += 1;
+            bLo += 1;
+        }
+        while (aLo < aHi && bLo < bHi && _a[aHi - 1] == _b[bHi - 1]) {
+            aHi -= 1;
+            bHi -= 1;
+        }
+        if (aLo == aHi || bLo == bHi) {
+            if (aLo < aHi || bLo < bHi) {
+                _edits.add(new Edit(aLo, aHi, bLo, bHi));
+            }
+            return;
+        }
+        int[] anchor = _histogram ? anchor(aLo, aHi, bLo, bHi) : null;
+        if (anchor == null) {
+            myers(aLo, aHi, bLo, bHi);
+        } else if (anchor.length == 0) {
+            _edits.add(new Edit(aLo, aHi, bLo, bHi));
+        } else {
+            _regions.push(new int[] {anchor[2], aHi, anchor[3], bHi});
+            _regions.push(new int[] {aLo, anchor[0], bLo, anchor[1]});
+        }
+    }
+
+    /** Return the longest run of common elements, in [ALO, AHI) of _A and
+     *  [BLO, BHI) of _B, through the element of _B that occurs least often
+     *  in that part of _A, as {its start in _A, start in _B, end in _A,
+     *  end in _B}. Return an empty array if the regions have nothing in
+     *  common, and null if every common element occurs more than
+     *  MAX_CHAIN times. */
+    private int[] anchor(int aLo, int aHi, int bLo, int bHi) {
+        if (_counts == null) {
+            int classes = 0;
+            for (int x : _a) {
+                classes = Math.max(classes, x + 1);
+            }
+            for (int x : _b) {
+                classes = Math.max(classes, x + 1);
+            }
+            _counts = new int[classes];
+            _firsts = new int[classes];
+        }
+        for (int i = aHi - 1; i >= aLo; i -= 1) {
+            _counts[_a[i]] += 1;
+            _firsts[_a[i]] = i;
+        }
+        int best = -1, bestCount = Integer.MAX_VALUE, bestLength = 0;
+        boolean common = false;
+        int[] result = null;
+        for (int j = bLo; j < bHi; j += 1) {
+            int count = _counts[_b[j]];
+            if (count == 0) {
+                continue;
+            }
+            common = true;
+            if (count > MAX_CHAIN || count > bestCount) {
+                continue;
+            }
+            int i = _firsts[_b[j]];
+            int s = i, t = j;
+            while (s > aLo && t > bLo && _a[s - 1] == _b[t - 1]) {
+                s -= 1;
+                t -= 1;
+            }
+            int e = i + 1, f = j + 1;
+            while (e < aHi && f < bHi && _a[e] == _b[f]) {
+                e += 1;
+                f += 1;
+            }
+            if (count < bestCount || e - s > bestLength) {
+                best = j;
+                bestCount = count;
+                bestLength = e - s;
+                result = new int[] {s, t, e, f};
+            }
+            j = Math.max(j, f - 1);
+        }
+        for (int i = aLo; i < aHi; i += 1) {
+            _counts[_a[i]] = 0;
+        }
+        if (!common) {
+            return new int[0];
+        }
+        return best < 0 ? null : result;
+    }
+
+    /** Add the edits of a shortest edit script turning [ALO, AHI) of _A
+     *  into [BLO, BHI) of _B, dividing at the middle snake. */
+    private void myers(int aLo, int aHi, int bLo, int bHi) {
+        while (aLo < aHi && bLo < bHi && _a[aLo] == _b[bLo]) {
+            aLo += 1;
+            bLo += 1;
+        }
+        while (aLo < aHi && bLo < bHi && _a[aHi - 1] == _b[bHi - 1]) {
+            aHi -= 1;
+            bHi -= 1;
+        }
+        if (aLo == aHi || bLo == bHi) {
+            if (aLo < aHi || bLo < bHi) {
+                _edits.add(new Edit(aLo, aHi, bLo, bHi));
+            }
+            return;
+        }
+        int[] mid = middle(aLo, aHi, bLo, bHi);
+        if (mid == null) {
+            _edits.add(new Edit(aLo, aHi, bLo, bHi));
+            return;
+        }
+        myers(aLo, mid[0], bLo, mid[1]);
+        myers(mid[0], aHi, mid[1], bHi);
+    }
+
+    /** Return a point {x, y} on a shortest edit script turning
+     *  [ALO, AHI) of _A into [BLO, BHI) of _B, found where the searches
+     *  from either end first meet, so that both halves it divides the
+     *  problem into have shorter scripts, or null if the regions have
+     *  nothing in common. The regions must be non-empty and differ in
+     *  their first and last elements. */
+    private int[] middle(int aLo, int aHi, int bLo, int bHi) {
+        int n = aHi - aLo, m = bHi - bLo, delta = n - m;
+        boolean odd = (delta & 1) != 0;
+        int maxD = (n + m + 1) / 2, offset = maxD,
+            length = 2 * maxD + 2;
+        if (_forward == null || _forward.length < length) {
+            _forward = new int[length];
+            _reverse = new int[length];
+        }
+        int[] vf = _forward, vb = _reverse;
+        Arrays.fill(vf, 0, length, -1);
+        Arrays.fill(vb, 0, length, -1);
+        vf[offset + 1] = 0;
+        vb[offset + 1] = 0;
+        int fStart = 0, fEnd = 0, rStart = 0, rEnd = 0;
+        for (int d = 0; d < maxD; d += 1) {
+            for (int k = -d + fStart; k <= d - fEnd; k += 2) {
+                int x = k == -d || k != d && vf[offset + k - 1]
+                    < vf[offset + k + 1] ? vf[offset + k + 1]
+                    : vf[offset + k - 1] + 1;
+                int y = x - k;
+                while (x < n && y < m && _a[aLo + x] == _b[bLo + y]) {
+                    x += 1;
+                    y += 1;
+                }
+                vf[offset + k] = x;
+                if (x > n) {
+                    fEnd += 2;
+                } else if (y > m) {
+                    fStart += 2;
+                } else if (odd) {
+                    int r = offset + delta - k;
+                    if (r >= 0 && r < length && vb[r] != -1
+                        && x >= n - vb[r]) {
+                        return new int[] {aLo + x, bLo + y};
+                    }
+                }
+            }
+            for (int k = -d + rStart; k <= d - rEnd; k += 2) {
+                int x = k == -d || k != d && vb[offset + k - 1]
+                    < vb[offset + k + 1] ? vb[offset + k + 1]
+                    : vb[offset + k - 1] + 1;
+                int y = x - k;
+                while (x < n && y < m
+                       && _a[aHi - x - 1] == _b[bHi - y - 1]) {
+                    x += 1;
+                    y += 1;
+                }
+                vb[offset + k] = x;
+                if (x > n) {
+                    rEnd += 2;
+                } else if (y > m) {
+                    rStart += 2;
+                } else if (!odd) {
+                    int f = offset + delta - k;
+                    if (f >= 0 && f < length && vf[f] != -1
+                        && vf[f] >= n - x) {
+                        return new int[] {aLo + vf[f],
+                            bLo + vf[f] - (f - offset)};
+                    }
+                }
+            }
+        }
+        return null;
+    }
+
+    /** Return the lines of A and B as arrays of integers, equal exactly
+     *  where the lines are. */
+    private static int[][] intern(Lines a, Lines b) {
+        int capacity = Integer.highestOneBit(
+                Math.max(2, 2 * (a.size() + b.size())) * 2 - 1);
+        int[] table = new int[capacity];
+        ArrayList<Lines> files = new ArrayList<>();
+        int[] repFile = new int[a.size() + b.size()],
+            repLine = new int[a.size() + b.size()];
+        int[][] result = new int[][] {new int[a.size()], new int[b.size()]};
+        Lines[] sides = {a, b};
+        int classes = 0;
+        for (int side = 0; side < 2; side += 1) {
+            Lines lines = sides[side];
+            for (int i = 0; i < lines.size(); i += 1) {
+                int slot = mix(lines._hashes[i]) & (capacity - 1);
+                while (table[slot] != 0) {
+                    int id = table[slot] - 1;
+                    if (lines.same(i, sides[repFile[id]], repLine[id])) {
+                        break;
+                    }
+                    slot = (slot + 1) & (capacity - 1);
+                }
+                if (table[slot] == 0) {
+                    repFile[classes] = side;
+                    repLine[classes] = i;
+                    classes += 1;
+                    table[slot] = classes;
+                }
+                result[side][i] = table[slot] - 1;
+            }
+        }
+        return result;
+    }
+
+    /** Return H with its bits spread, for use as a table index. */
+    private static int mix(int h) {
+        h *= 0x9E3779B9;
+        return h ^ (h >>> 16);
+    }
+
+    /** Return the bytes of DATA as integers. */
+    private static int[] widen(byte[] data) {
+        int[] result = new int[data.length];
+        for (int i = 0; i < data.length; i += 1) {
+            result[i] = data[i] & 0xFF;
+        }
+        return result;
+    }
+
+    /** Return the line range [FROM, TO) as a hunk header shows it. */
+    private static String range(int from, int to) {
+        int length = to - from;
+        return (length == 0 ? from : from + 1) + "," + length;
+    }
+
+    /** Return how a diff names the file NAME with contents DATA, under
+     *  PREFIX. */
+    private static String label(String prefix, String name, byte[] data) {
+        return data == null ? "/dev/null" : prefix + name;
+    }
+
+    /** Return whether DATA looks binary: has a NUL byte early on. */
+    private static boolean isBinary(byte[] data) {
+        if (data == null) {
+            return false;
+        }
+        for (int i = 0; i < Math.min(data.length, BINARY_PROBE); i += 1) {
+            if (data[i] == 0) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /** Write LINE and a newline to OUT. */
+    private static void header(OutputStream out, String line)
+        throws IOException {
+        out.write((line + "\n").getBytes(StandardCharsets.UTF_8));
+    }
+
+    /** Marks a last line that has no newline. */
+    private static final byte[] NO_NEWLINE =
+        "\n\\ No newline at end of file\n".getBytes(StandardCharsets.UTF_8);
+
+    /** Elements of the old and new versions. */
+    private final int[] _a, _b;
+
+    /** Edits found but not yet taken by next(), in order. */
+    private final ArrayDeque<Edit> _edits;
+
+    /** Regions still to diff, leftmost on top. */
+    private final ArrayDeque<int[]> _regions;
+
+    /** Whether to look for histogram anchors before using Myers. */
+    private boolean _histogram;
+
+    /** Occurrences in the current old region and first occurrence there,
+     *  by element. Zero between calls to anchor(). */
+    private int[] _counts, _firsts;
+
+    /** Furthest x reached on each diagonal by the forward and reverse
+     *  searches of middle(). */
+    private int[] _forward, _reverse;
+
+}
@@ -0,0 +1,261 @@
+package gitlet;
+
+import java.io.File;
+import java.util.ArrayDeque;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+
+import static gitlet.Utils.*;
+
+/** Removes the objects that no branch can reach and packs the rest.
+ *
+ *  The mark phase walks the commit graph down from every branch head,
+ *  collecting each commit and the blobs it tracks, along with the blobs
+ *  of files now staged and the bases of every delta among them. The
+ *  sweep then packs the reachable loose objects, deleting their loose
+ *  copies, and deletes the unreachable ones. The pack is only rewritten
+ *  when it holds unreachable objects and was last written before the
+ *  grace period; the loose objects are then appended to it. Objects are
+ *  streamed from file to file throughout, so neither the pack nor any
+ *  object in it need fit in memory.
+ *
+ *  Readers may run throughout: loose objects are deleted only once a
+ *  pack index naming them is in place, a rewritten pack is written
+ *  beside the old one rather than over it, and an object or old pack is
+ *  deleted only if it has not been written for GRACE_MS, so that one
+ *  being written or read by another command survives. Commands that
+ *  write are kept out by holding the repository's exclusive RepoLock
+ *  throughout. */
+class GarbageCollector {
+
+    /** Time in ms for which unreachable loose objects, temporary files
+     *  and replaced packs are kept, settable with the system property
+     *  gitlet.gc.grace. */
+    static final long GRACE_MS =
+        Long.getLong("gitlet.gc.grace", 60 * 60 * 1000);
+
+    /** A collector keeping everything written in the last GRACE ms. */
+    GarbageCollector(long grace) {
+        _grace = grace;
+    }
+
+    /** A collector keeping everything written in the last GRACE_MS. */
+    GarbageCollector() {
+        this(GRACE_MS);
+    }
+
+    /** Collect the repository whose branches have head commits HEADS and
+     *  whose current branch has head CURRENT. Staged files identical to
+     *  the version CURRENT tracks, which no commit would record, are
+     *  removed as stale. */
+    void collect(Collection<ObjectId> heads, ObjectId current) {
+        RepoLock lock = RepoLock.exclusive();
+        try {
+            collectLocked(heads, current);
+        } finally {
+            lock.close();
+        }
+    }
+
+    /** Collect as for collect(HEADS, CURRENT), holding the repository's
+     *  exclusive lock. */
+    private void collectLocked(Collection<ObjectId> heads, ObjectId current) {
+        ObjectStore.sync();
+        _cutoff = System.currentTimeMillis() - _grace;
+        _removed = _packed = _unstaged = 0;
+        HashSet<Commit> commits = new HashSet<>();
+        for (ObjectId head : heads) {
+            commits.add(ObjectStore.readCommit(head));
+        }
+        ObjectStore.repack(commits);
+
+        HashSet<ObjectId> reachable = markCommits(heads);
+        ObjectStore.commitGraph().retain(reachable);
+        ObjectStore.messageIndex().retain(reachable);
+        HashSet<ObjectId> blobs = new HashSet<>();
+        for (ObjectId id : reachable) {
+            blobs.addAll(ObjectStore.readCommit(id).hashes());
+        }
+        blobs.addAll(markStaged(ObjectStore.readCommit(current)));
+        markBases(blobs);
+        reachable.addAll(blobs);
+
+        pack(reachable);
+        for (File dir : new File[] {ObjectStore.COMMITS, ObjectStore.FILES}) {
+            sweep(dir, reachable);
+        }
+        for (File pack : ObjectStore.packFile().stalePacks()) {
+            if (expired(pack)) {
+                pack.delete();
+            }
+        }
+    }
+
+    /** Return the number of unreachable objects deleted by the last
+     *  collection, loose or packed. */
+    int removed() {
+        return _removed;
+    }
+
+    /** Return the number of loose objects packed by the last collection. */
+    int packed() {
+        return _packed;
+    }
+
+    /** Return the number of stale staged files removed by the last
+     *  collection. */
+    int unstaged() {
+        return _unstaged;
+    }
+
+    /** Return the ids of HEADS and all their ancestors. */
+    private HashSet<ObjectId> markCommits(Collection<ObjectId> heads) {
+        CommitGraph graph = ObjectStore.commitGraph();
+        HashSet<ObjectId> result = new HashSet<>();
+        for (ObjectId head : heads) {
+            if (!graph.contains(head)) {
+                graph.add(ObjectStore.readCommit(head));
+            }
+            if (result.contains(head)) {
+                continue;
+            }
+            for (int k : graph.ancestors(graph.find(head))) {
+                result.add(graph.id(k));
+            }
+        }
+        return result;
+    }
+
+    /** Return the blobs of the files now staged, first removing those
+     *  that are stale: staged as the same blob as HEAD tracks them, or
+     *  temporary files left by an interrupted command. */
+    private HashSet<ObjectId> markStaged(Commit head) {
+        HashSet<ObjectId> result = new HashSet<>();
+        List<String> names = plainFilenamesIn(ObjectStore.STAGING);
+        if (names == null) {
+            return result;
+        }
+        for (String name : names) {
+            File file = join(ObjectStore.STAGING, name);
+            if (name.endsWith(".tmp")) {
+                if (expired(file)) {
+                    file.delete();
+                }
+                continue;
+            }
+            Blob staged = ObjectFormat.readStaged(file);
+            Manifest.Entry tracked = head.manifest().get(staged.name());
+            if (tracked != null && tracked.id().equals(staged.id())) {
+                file.delete();
+                _unstaged += 1;
+            } else {
+                result.add(staged.id());
+            }
+        }
+        return result;
+    }
+
+    /** Add to BLOBS the delta bases of each of them, and of those bases
+     *  in turn. */
+    private void markBases(HashSet<ObjectId> blobs) {
+        ArrayDeque<ObjectId> queue = new ArrayDeque<>(blobs);
+        while (!queue.isEmpty()) {
+            ObjectId base = ObjectStore.deltaBase(queue.poll());
+            if (base != null && blobs.add(base)) {
+                queue.add(base);
+            }
+        }
+    }
+
+    /** Put every REACHABLE object in the pack, recompressed with DENSE
+     *  if loose and compressed, dropping any unreachable objects the pack
+     *  holds if it was last written before the grace period. Objects are
+     *  copied into the pack from where they are stored, never whole in
+     *  memory. */
+    private void pack(HashSet<ObjectId> reachable) {
+        PackFile pack = ObjectStore.packFile();
+        boolean expired = expired(pack.file());
+        LinkedHashMap<ObjectId, PackFile.Span> kept = new LinkedHashMap<>();
+        int dropped = 0;
+        for (ObjectId id : pack.matching("")) {
+            if (reachable.contains(id) || !expired) {
+                kept.put(id, pack.span(id));
+            } else {
+                dropped += 1;
+            }
+        }
+        LinkedHashMap<ObjectId, PackFile.Span> loose = new LinkedHashMap<>();
+        for (File dir : new File[] {ObjectStore.COMMITS, ObjectStore.FILES}) {
+            for (ObjectId id : ObjectStore.looseIds(dir)) {
+                if (reachable.contains(id) && !kept.containsKey(id)) {
+                    loose.put(id, new PackFile.Span(
+                            ObjectStore.looseFile(dir, id)));
+                }
+            }
+        }
+        if (dropped > 0) {
+            List<File> stale = pack.stalePacks();
+            pack.rewrite(kept);
+            for (File replaced : pack.stalePacks()) {
+                if (!stale.contains(replaced)) {
+                    replaced.setLastModified(System.currentTimeMillis());
+                }
+            }
+            _removed += dropped;
+        }
+        if (!loose.isEmpty()) {
+            pack.append(loose, Codec.DENSE);
+            _packed += loose.size();
+        }
+    }
+
+    /** Delete from DIR every loose object that is now packed, and every
+     *  other object and temporary file that is neither REACHABLE nor
+     *  recently written. */
+    private void sweep(File dir, HashSet<ObjectId> reachable) {
+        PackFile pack = ObjectStore.packFile();
+        for (ObjectId id : ObjectStore.looseIds(dir)) {
+            File file = ObjectStore.looseFile(dir, id);
+            if (reachable.contains(id) ? pack.contains(id) : expired(file)) {
+                file.delete();
+                _removed += reachable.contains(id) ? 0 : 1;
+            }
+        }
+        for (int shard = 0; shard < ObjectStore.SHARDS; shard += 1) {
+            File shardDir = join(dir, String.format("%02x", shard));
+            List<String> names = plainFilenamesIn(shardDir);
+            if (names == null) {
+                continue;
+            }
+            for (String name : names) {
+                File file = join(shardDir, name);
+                if (name.endsWith(".tmp") && expired(file)) {
+                    file.delete();
+                }
+            }
+        }
+    }
+
+    /** Return whether FILE was last written before the grace period. */
+    private boolean expired(File file) {
+        return file.lastModified() < _cutoff;
+    }
+
+    /** Grace period in ms. */
+    private final long _grace;
+
+    /** Time before which files are expired, for the current collection. */
+    private long _cutoff;
+
+    /** Objects removed by the last collection. */
+    private int _removed;
+
+    /** Loose objects packed by the last collection. */
+    private int _packed;
+
+    /** Stale staged files removed by the last collection. */
+    private int _unstaged;
+
+}
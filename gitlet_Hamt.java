@@ -0,0 +1,324 @@
+package gitlet;
+
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.function.BiConsumer;
+import java.util.function.Function;
+
+/** An immutable map from keys to values, stored as a hash array mapped
+ *  trie. Every put or remove returns a new map that shares all of its
+ *  structure with the old one except the nodes on the path to the
+ *  changed key, so updating a map of N keys costs O(log N) time and
+ *  space however large it is.
+ *
+ *  Each node covers BITS bits of the key's hash and holds up to 2^BITS
+ *  slots, stored compactly behind a bitmap of which slots are present.
+ *  Keys whose hashes agree in every bit share a collision node at the
+ *  bottom of the trie, sorted by key.
+ *
+ *  The shape of the trie depends only on its keys, never on the order in
+ *  which they were added or removed: a subtree holding a single key is
+ *  always replaced by that key's leaf.
+ *
+ *  A map also has a Merkle digest, in which each node's digest covers its
+ *  bitmap and the digests of its slots. Nodes keep their digests once
+ *  computed and share them with every map sharing the node, so after an
+ *  update only the nodes on the changed path are hashed again.
+ *  @param <K> the type of key.
+ *  @param <V> the type of value. */
+class Hamt<K extends Comparable<K>, V> {
+
+    /** Number of hash bits consumed by each level. */
+    static final int BITS = 5;
+
+    /** Depth of collision nodes, below every level that consumes hash
+     *  bits. */
+    static final int MAX_DEPTH = (32 + BITS - 1) / BITS;
+
+    /** The empty map. */
+    Hamt() {
+        this(null, 0);
+    }
+
+    /** A map with trie ROOT and SIZE keys. */
+    private Hamt(Node<K, V> root, int size) {
+        _root = root;
+        _size = size;
+    }
+
+    /** Return the number of keys in this map. */
+    int size() {
+        return _size;
+    }
+
+    /** Return the value of KEY, or null if absent. */
+    V get(K key) {
+        int hash = key.hashCode();
+        Node<K, V> node = _root;
+        for (int depth = 0; node != null; depth += 1) {
+            if (depth == MAX_DEPTH) {
+                for (Object slot : node.slots) {
+                    Leaf<K, V> leaf = leaf(slot);
+                    if (leaf.key.equals(key)) {
+                        return leaf.value;
+                    }
+                }
+                return null;
+            }
+            int bit = bit(hash, depth);
+            if ((node.bitmap & bit) == 0) {
+                return null;
+            }
+            Object slot = node.slots[index(node.bitmap, bit)];
+            if (slot instanceof Leaf) {
+                Leaf<K, V> leaf = leaf(slot);
+                return leaf.key.equals(key) ? leaf.value : null;
+            }
+            node = node(slot);
+        }
+        return null;
+    }
+
+    /** Return a map equal to this one but with KEY mapped to VALUE. */
+    Hamt<K, V> put(K key, V value) {
+        boolean[] added = new boolean[1];
+        Node<K, V> root = put(_root == null ? new Node<>(0, new Object[0])
+                : _root, 0, new Leaf<>(key, value), added);
+        return new Hamt<>(root, _size + (added[0] ? 1 : 0));
+    }
+
+    /** Return a map equal to this one but without KEY. */
+    Hamt<K, V> remove(K key) {
+        if (get(key) == null) {
+            return this;
+        }
+        return new Hamt<>(remove(_root, 0, key), _size - 1);
+    }
+
+    /** Call ACTION on every key and value, in hash order. */
+    void forEach(BiConsumer<K, V> action) {
+        forEach(_root, 0, action);
+    }
+
+    /** Return every value, in hash order. */
+    ArrayList<V> values() {
+        ArrayList<V> result = new ArrayList<>(_size);
+        forEach((k, v) -> result.add(v));
+        return result;
+    }
+
+    /** Return the SHA-1 Merkle digest of this map, in which each value's
+     *  digest is given by LEAF. Since digests are kept in the nodes, every
+     *  map sharing nodes with this one must be given the same LEAF. */
+    byte[] digest(Function<V, byte[]> leaf) {
+        return digest(_root == null ? new Node<>(0, new Object[0]) : _root,
+                      leaf);
+    }
+
+    /** Return the digest of NODE, computing and keeping it on first use,
+     *  with the digests of values given by LEAF. */
+    private static <K, V> byte[] digest(Node<K, V> node,
+                                        Function<V, byte[]> leaf) {
+        byte[] result = node.digest;
+        if (result != null) {
+            return result;
+        }
+        MessageDigest sha1;
+        try {
+            sha1 = MessageDigest.getInstance("SHA-1");
+        } catch (NoSuchAlgorithmException excp) {
+            throw new IllegalStateException(excp);
+        }
+        int bitmap = node.bitmap;
+        sha1.update(new byte[] {(byte) (bitmap >>> 24), (byte) (bitmap >>> 16),
+                                (byte) (bitmap >>> 8), (byte) bitmap});
+        for (Object slot : node.slots) {
+            if (slot instanceof Leaf) {
+                Leaf<K, V> entry = leaf(slot);
+                sha1.update(LEAF_TAG);
+                sha1.update(leaf.apply(entry.value));
+            } else {
+                sha1.update(NODE_TAG);
+                sha1.update(digest(node(slot), leaf));
+            }
+        }
+        result = sha1.digest();
+        node.digest = result;
+        return result;
+    }
+
+    /** Return the root of the trie. Null for the empty map. */
+    Node<K, V> root() {
+        return _root;
+    }
+
+    /** Return NODE, at DEPTH, with LEAF added or replaced, setting
+     *  ADDED[0] if the key was new. */
+    private static <K extends Comparable<K>, V> Node<K, V> put(
+            Node<K, V> node, int depth, Leaf<K, V> leaf, boolean[] added) {
+        if (depth == MAX_DEPTH) {
+            int i;
+            for (i = 0; i < node.slots.length; i += 1) {
+                Leaf<K, V> other = leaf(node.slots[i]);
+                int cmp = other.key.compareTo(leaf.key);
+                if (cmp == 0) {
+                    return node.with(i, leaf);
+                } else if (cmp > 0) {
+                    break;
+                }
+            }
+            added[0] = true;
+            return node.inserting(i, 0, leaf);
+        }
+        int bit = bit(leaf.hash, depth);
+        int i = index(node.bitmap, bit);
+        if ((node.bitmap & bit) == 0) {
+            added[0] = true;
+            return node.inserting(i, bit, leaf);
+        }
+        Object slot = node.slots[i];
+        if (slot instanceof Node) {
+            return node.with(i, put(node(slot), depth + 1, leaf, added));
+        }
+        Leaf<K, V> old = leaf(slot);
+        if (old.key.equals(leaf.key)) {
+            return node.with(i, leaf);
+        }
+        added[0] = true;
+        Node<K, V> child = put(new Node<>(0, new Object[0]), depth + 1, old,
+                new boolean[1]);
+        return node.with(i, put(child, depth + 1, leaf, new boolean[1]));
+    }
+
+    /** Return NODE, at DEPTH, without KEY, which must be present, or null
+     *  if nothing remains below it. */
+    private static <K, V> Node<K, V> remove(Node<K, V> node, int depth,
+                                            K key) {
+        if (depth == MAX_DEPTH) {
+            for (int i = 0; i < node.slots.length; i += 1) {
+                if (((Leaf<?, ?>) node.slots[i]).key.equals(key)) {
+                    return node.slots.length == 1 ? null
+                            : node.removing(i, 0);
+                }
+            }
+            return node;
+        }
+        int bit = bit(key.hashCode(), depth);
+        int i = index(node.bitmap, bit);
+        Object slot = node.slots[i];
+        if (slot instanceof Leaf) {
+            return node.slots.length == 1 ? null : node.removing(i, bit);
+        }
+        Node<K, V> child = remove(node(slot), depth + 1, key);
+        if (child.slots.length == 1 && child.slots[0] instanceof Leaf) {
+            return node.with(i, child.slots[0]);
+        }
+        return node.with(i, child);
+    }
+
+    /** Call ACTION on every entry below NODE at DEPTH. */
+    private static <K, V> void forEach(Node<K, V> node, int depth,
+                                       BiConsumer<K, V> action) {
+        if (node == null) {
+            return;
+        }
+        for (Object slot : node.slots) {
+            if (slot instanceof Leaf) {
+                Leaf<K, V> leaf = leaf(slot);
+                action.accept(leaf.key, leaf.value);
+            } else {
+                forEach(node(slot), depth + 1, action);
+            }
+        }
+    }
+
+    /** Return the bitmap bit selected by HASH at DEPTH. */
+    private static int bit(int hash, int depth) {
+        return 1 << ((hash >>> (depth * BITS)) & ((1 << BITS) - 1));
+    }
+
+    /** Return the position within a node's slots of BIT in BITMAP. */
+    private static int index(int bitmap, int bit) {
+        return Integer.bitCount(bitmap & (bit - 1));
+    }
+
+    @SuppressWarnings("unchecked")
+    private static <K, V> Leaf<K, V> leaf(Object slot) {
+        return (Leaf<K, V>) slot;
+    }
+
+    @SuppressWarnings("unchecked")
+    private static <K, V> Node<K, V> node(Object slot) {
+        return (Node<K, V>) slot;
+    }
+
+    /** One key and its value. */
+    static final class Leaf<K, V> {
+        Leaf(K key, V value) {
+            this.key = key;
+            this.hash = key.hashCode();
+            this.value = value;
+        }
+
+        /** The key and its hash. */
+        final K key;
+        final int hash;
+        /** The value. */
+        final V value;
+    }
+
+    /** An interior node: the slots present, in bit order, each a Leaf or
+     *  a Node. At MAX_DEPTH, the bitmap is unused and every slot is a
+     *  Leaf. */
+    static final class Node<K, V> {
+        Node(int bitmap, Object[] slots) {
+            this.bitmap = bitmap;
+            this.slots = slots;
+        }
+
+        /** Return a copy of this node with slot I replaced by SLOT. */
+        Node<K, V> with(int i, Object slot) {
+            Object[] slots = this.slots.clone();
+            slots[i] = slot;
+            return new Node<>(bitmap, slots);
+        }
+
+        /** Return a copy of this node with SLOT inserted at I and BIT
+         *  set. */
+        Node<K, V> inserting(int i, int bit, Object slot) {
+            Object[] slots = new Object[this.slots.length + 1];
+            System.arraycopy(this.slots, 0, slots, 0, i);
+            slots[i] = slot;
+            System.arraycopy(this.slots, i, slots, i + 1,
+                    this.slots.length - i);
+            return new Node<>(bitmap | bit, slots);
+        }
+
+        /** Return a copy of this node without slot I and BIT. */
+        Node<K, V> removing(int i, int bit) {
+            Object[] slots = new Object[this.slots.length - 1];
+            System.arraycopy(this.slots, 0, slots, 0, i);
+            System.arraycopy(this.slots, i + 1, slots, i,
+                    this.slots.length - i - 1);
+            return new Node<>(bitmap & ~bit, slots);
+        }
+
+        /** Which slots are present. */
+        final int bitmap;
+        /** The present slots. */
+        final Object[] slots;
+        /** The Merkle digest of this node. Null until first needed. */
+        private volatile byte[] digest;
+    }
+
+    /** Bytes marking a slot's digest as a value's or a node's. */
+    private static final byte LEAF_TAG = 0, NODE_TAG = 1;
+
+    /** The root of the trie. Null when empty. */
+    private final Node<K, V> _root;
+
+    /** The number of keys. */
+    private final int _size;
+
+}
@@ -0,0 +1,199 @@
+package gitlet;
+
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.Serializable;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.HashSet;
+
+/** The compact listing of files tracked by a commit: for every file name,
+ *  the hash of its blob and its size in bytes. Carrying this instead of
+ *  the blobs themselves lets history and status operations run without
+ *  reading any file contents.
+ *
+ *  Entries are kept in a persistent trie by name. Since blobs are named
+ *  by their contents alone, several files may share one blob hash.
+ *  Copying a manifest shares the trie, and each change copies only the
+ *  path to the changed entry, so a commit built from its parent's
+ *  manifest costs time and space in proportion to the files it changes
+ *  rather than the files it tracks.
+ *
+ *  The manifest also has a tree hash identifying its contents: the
+ *  Merkle digest of the trie, over the SHA-1 hash of every entry's name
+ *  and blob hash. The trie's shape depends only on the names it holds,
+ *  so equal manifests have equal tree hashes. Each node keeps its digest
+ *  once computed, and a manifest built from its parent's shares every
+ *  node off the changed paths, so the tree hash of a new commit costs
+ *  time proportional to the change times the depth of the trie. A
+ *  manifest read from the store takes the tree hash stored with it, and
+ *  its nodes are hashed only when a child is first hashed. */
+class Manifest implements Serializable {
+
+    /** An empty manifest. */
+    Manifest() {
+        _byName = new Hamt<>();
+    }
+
+    /** A manifest with the same entries as OTHER, sharing its storage. */
+    Manifest(Manifest other) {
+        _byName = other._byName;
+    }
+
+    /** Track the file NAME as the blob with hash ID and SIZE bytes,
+     *  replacing any previous version of NAME. */
+    void put(String name, ObjectId id, long size) {
+        _byName = _byName.put(name, new Entry(name, id, size));
+        _tree = null;
+    }
+
+    /** Stop tracking the file NAME. */
+    void remove(String name) {
+        if (_byName.get(name) != null) {
+            _byName = _byName.remove(name);
+            _tree = null;
+        }
+    }
+
+    /** Return the entry for file NAME, or null if it is untracked. */
+    Entry get(String name) {
+        return _byName.get(name);
+    }
+
+    /** Return all entries, in an order fixed by their names. */
+    ArrayList<Entry> entries() {
+        return _byName.values();
+    }
+
+    /** Return the names of the files that this manifest and OTHER track
+     *  differently: those tracked by only one of them, or as different
+     *  blobs. OTHER may be null, standing for no files. */
+    ArrayList<String> changes(Manifest other) {
+        ArrayList<String> result = new ArrayList<>();
+        _byName.forEach((name, entry) -> {
+            Entry old = other == null ? null : other.get(name);
+            if (old == null || !old.id().equals(entry.id())) {
+                result.add(name);
+            }
+        });
+        if (other != null) {
+            other._byName.forEach((name, entry) -> {
+                if (get(name) == null) {
+                    result.add(name);
+                }
+            });
+        }
+        return result;
+    }
+
+    /** Return the blob hashes of all tracked files. */
+    HashSet<ObjectId> ids() {
+        HashSet<ObjectId> result = new HashSet<>();
+        _byName.forEach((name, entry) -> result.add(entry.id()));
+        return result;
+    }
+
+    /** Return the tree hash of this manifest. Two manifests with the same
+     *  entries have the same tree hash. */
+    ObjectId hash() {
+        if (_tree == null) {
+            _tree = ObjectId.of(_byName.digest(Entry::digest));
+        }
+        return _tree;
+    }
+
+    /** Take HASH, the tree hash of these entries as stored with them,
+     *  rather than computing it. */
+    void setHash(ObjectId hash) {
+        _tree = hash;
+    }
+
+    /** Return the number of tracked files. */
+    int size() {
+        return _byName.size();
+    }
+
+    @Override
+    public String toString() {
+        return entries().toString();
+    }
+
+    /** Write the entries of this manifest to OUT one after another. */
+    private void writeObject(ObjectOutputStream out) throws IOException {
+        out.writeInt(size());
+        for (Entry entry : entries()) {
+            out.writeUTF(entry.name());
+            out.writeUTF(entry.id().toString());
+            out.writeLong(entry.size());
+        }
+    }
+
+    /** Rebuild this manifest from the entries written to IN. */
+    private void readObject(ObjectInputStream in) throws IOException {
+        _byName = new Hamt<>();
+        for (int n = in.readInt(); n > 0; n -= 1) {
+            put(in.readUTF(), ObjectId.of(in.readUTF()), in.readLong());
+        }
+    }
+
+    /** One tracked file. */
+    static class Entry implements Serializable {
+
+        /** An entry for file NAME with blob hash ID and SIZE bytes. */
+        Entry(String name, ObjectId id, long size) {
+            _name = name;
+            _id = id;
+            _size = size;
+        }
+
+        String name() {
+            return _name;
+        }
+
+        ObjectId id() {
+            return _id;
+        }
+
+        long size() {
+            return _size;
+        }
+
+        /** Return this entry's digest within the tree hash: the SHA-1
+         *  hash of its name, a zero byte and its blob hash. */
+        byte[] digest() {
+            try {
+                MessageDigest sha1 = MessageDigest.getInstance("SHA-1");
+                sha1.update(_name.getBytes(StandardCharsets.UTF_8));
+                sha1.update((byte) 0);
+                sha1.update(_id.toBytes());
+                return sha1.digest();
+            } catch (NoSuchAlgorithmException excp) {
+                throw new IllegalStateException(excp);
+            }
+        }
+
+        @Override
+        public String toString() {
+            return _id.toString();
+        }
+
+        /** Filename. */
+        private final String _name;
+
+        /** Hash of the file's blob. */
+        private final ObjectId _id;
+
+        /** Length of the file's contents in bytes. */
+        private final long _size;
+    }
+
+    /** Tracked files, keyed by name. */
+    private transient Hamt<String, Entry> _byName;
+
+    /** The tree hash. Null until first needed. */
+    private transient ObjectId _tree;
+
+}
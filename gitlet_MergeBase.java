@@ -0,0 +1,173 @@
+package gitlet;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.PriorityQueue;
+
+import static gitlet.Utils.error;
+
+/** Finds the split points of two commits: their common ancestors that are
+ *  not ancestors of any other common ancestor. Both commits are walked
+ *  at once through the commit graph, always expanding the commit with
+ *  the largest generation number next, and painting every commit with
+ *  the sides it is reachable from. A commit reachable from both sides is
+ *  a candidate, and everything below it is marked stale; the walk ends
+ *  as soon as only stale commits remain on the frontier, which is known
+ *  from a running count of the entries in the queue that are not stale
+ *  rather than by scanning the queue at each step.
+ *
+ *  After a criss-cross merge there may be several split points; all()
+ *  returns every one of them, and find() picks the most recent. */
+class MergeBase {
+
+    /** Commit reachable from the first commit. */
+    private static final byte FIRST = 1;
+    /** Commit reachable from the second commit. */
+    private static final byte SECOND = 2;
+    /** Commit reachable from a common ancestor. */
+    private static final byte STALE = 4;
+    /** Commit already recorded as a candidate. */
+    private static final byte RESULT = 8;
+
+    /** A merge-base engine over GRAPH. */
+    MergeBase(CommitGraph graph) {
+        _graph = graph;
+    }
+
+    /** Return the split point of commits A and B, preferring the most
+     *  recent when there are several, or null if they share no history. */
+    ObjectId find(ObjectId a, ObjectId b) {
+        List<ObjectId> bases = all(a, b);
+        return bases.isEmpty() ? null : bases.get(0);
+    }
+
+    /** Return every split point of commits A and B, from the most recent
+     *  generation down. */
+    List<ObjectId> all(ObjectId a, ObjectId b) {
+        int first = lookup(a), second = lookup(b);
+        ArrayList<ObjectId> result = new ArrayList<>();
+        if (first == second) {
+            result.add(a);
+            return result;
+        }
+        ArrayList<Integer> candidates = paint(first, second);
+        for (int k : candidates) {
+            if ((_flags[k] & STALE) == 0) {
+                result.add(_graph.id(k));
+            }
+        }
+        if (result.size() > 1) {
+            removeRedundant(result);
+        }
+        return result;
+    }
+
+    /** Walk down from FIRST and SECOND, returning every commit found to
+     *  be reachable from both in the order found. */
+    private ArrayList<Integer> paint(int first, int second) {
+        _flags = new byte[_graph.size()];
+        _queued = new int[_graph.size()];
+        _nonStale = 0;
+        PriorityQueue<Integer> queue = new PriorityQueue<>((x, y) -> {
+            int cmp = Integer.compare(_graph.generation(y),
+                    _graph.generation(x));
+            return cmp != 0 ? cmp
+                    : Long.compare(_graph.time(y), _graph.time(x));
+        });
+        ArrayList<Integer> candidates = new ArrayList<>();
+        _flags[first] |= FIRST;
+        _flags[second] |= SECOND;
+        push(queue, first);
+        push(queue, second);
+
+        while (_nonStale > 0) {
+            int k = queue.poll();
+            _queued[k] -= 1;
+            if ((_flags[k] & STALE) == 0) {
+                _nonStale -= 1;
+            }
+            int flags = _flags[k] & (FIRST | SECOND | STALE);
+            if (flags == (FIRST | SECOND)) {
+                if ((_flags[k] & RESULT) == 0) {
+                    _flags[k] |= RESULT;
+                    candidates.add(k);
+                }
+                flags |= STALE;
+            }
+            for (int p : new int[] {_graph.parent(k), _graph.mergeParent(k)}) {
+                if (p == CommitGraph.NONE || (_flags[p] & flags) == flags) {
+                    continue;
+                }
+                if ((flags & STALE) != 0 && (_flags[p] & STALE) == 0) {
+                    _nonStale -= _queued[p];
+                }
+                _flags[p] |= flags;
+                push(queue, p);
+            }
+        }
+        return candidates;
+    }
+
+    /** Add commit K to QUEUE, counting it if it is not stale. */
+    private void push(PriorityQueue<Integer> queue, int k) {
+        queue.add(k);
+        _queued[k] += 1;
+        if ((_flags[k] & STALE) == 0) {
+            _nonStale += 1;
+        }
+    }
+
+    /** Remove from BASES any commit that is an ancestor of another. */
+    private void removeRedundant(List<ObjectId> bases) {
+        int[] numbers = new int[bases.size()];
+        for (int i = 0; i < numbers.length; i += 1) {
+            numbers[i] = _graph.find(bases.get(i));
+        }
+        boolean[] redundant = new boolean[numbers.length];
+        for (int i = 0; i < numbers.length; i += 1) {
+            for (int j = 0; j < numbers.length && !redundant[i]; j += 1) {
+                if (i != j && !redundant[j]
+                        && _graph.isAncestor(numbers[i], numbers[j])) {
+                    redundant[i] = true;
+                }
+            }
+        }
+        for (int i = numbers.length - 1; i >= 0; i -= 1) {
+            if (redundant[i]) {
+                bases.remove(i);
+            }
+        }
+    }
+
+    /** Return the record number of commit ID, first adding it to the
+     *  graph if it is missing, which only a holder of the repository's
+     *  exclusive lock may do. */
+    private int lookup(ObjectId id) {
+        int k = _graph.find(id);
+        if (k == CommitGraph.NONE) {
+            if (!RepoLock.isExclusive(ObjectStore.REPO)) {
+                throw error("Commit %s is not in the commit graph, which "
+                            + "may only be changed under an exclusive "
+                            + "repository lock.", id);
+            }
+            _graph.add(ObjectStore.readCommit(id));
+            k = _graph.find(id);
+        }
+        return k;
+    }
+
+    /** The graph walked. */
+    private final CommitGraph _graph;
+
+    /** Paint flags of every commit in the current walk, by record number. */
+    private byte[] _flags;
+
+    /** Number of times each commit is in the queue of the current walk,
+     *  by record number. */
+    private int[] _queued;
+
+    /** Number of entries in the queue of the current walk whose commits
+     *  are not stale. */
+    private int _nonStale;
+
+}
@@ -0,0 +1,741 @@
+package gitlet;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+import java.util.TreeMap;
+
+import static gitlet.Utils.*;
+
+/** A memory-mapped inverted index from the words of commit messages to
+ *  the commits whose messages contain them, so that find and log --grep
+ *  read only the commits that can match.
+ *
+ *  Commits are numbered in the order they were added, which is roughly
+ *  the order they were made. Words are the maximal runs of letters and
+ *  digits in a message, lowercased and cut to MAX_WORD characters. Each
+ *  word's posting list holds the numbers of the commits using it in
+ *  increasing order, the first number and then the gaps between them
+ *  written as unsigned LEB128 varints.
+ *
+ *  The index is kept in parts: a base, in the index file, and after it
+ *  segments, each in a file named for the number of its first commit,
+ *  holding the commits added since. Each part is laid out as MAGIC,
+ *  commit count, word count, the number of its first commit and the
+ *  stamp of its base; the 20-byte id of each of its commits by number;
+ *  its commit numbers again, sorted by id, for membership tests; then,
+ *  sorted by the words' UTF-8 bytes, a WORD_SIZE-byte record per word of
+ *  the end of the word within the word data, the end of its posting list
+ *  within the posting data, its number of postings and its last posting;
+ *  then the word data and the posting data. Within a part, commits are
+ *  numbered from 0.
+ *
+ *  Rewriting one file for every commit would cost time in proportion to
+ *  the whole index per commit. Instead, add() writes the batch as a new
+ *  segment and then, like a binary counter, merges it with the parts
+ *  before it while the last of them holds no more commits than it does.
+ *  Each commit is so copied about log2 of the commit count times over the
+ *  life of the index, and queries consult as many parts at most. Merging
+ *  copies posting lists as they are, renumbering only their first
+ *  postings, and reads no messages. An index that does not exist yet is
+ *  built on first add() from every commit in the commit graph. Until
+ *  then, queries read every commit in the graph.
+ *
+ *  Like the commit graph, the index is changed only under the
+ *  repository's exclusive RepoLock, is remapped before each change, and
+ *  has each part replaced by renaming a new file over it. The base gets
+ *  a new stamp whenever it is rebuilt, so that segments left behind from
+ *  before, by a process that died before deleting them, are never read
+ *  as part of it. */
+class MessageIndex {
+
+    /** Leading bytes of every part of a message index. */
+    static final int MAGIC = 0x474D4932;
+
+    /** Length of a part's header: magic, commit count, word count, first
+     *  commit number and stamp. */
+    static final int HEADER_SIZE = 20;
+
+    /** Length of one word record. */
+    static final int WORD_SIZE = 16;
+
+    /** Longest word indexed, in characters; longer words are cut. */
+    static final int MAX_WORD = 64;
+
+    /** An index stored in FILE and the segments beside it. */
+    MessageIndex(File file) {
+        _file = file;
+    }
+
+    /** Return whether the index has been built. */
+    boolean exists() {
+        return parts() != null;
+    }
+
+    /** Return the number of commits indexed. */
+    int size() {
+        Part[] parts = parts();
+        if (parts == null) {
+            return 0;
+        }
+        Part last = parts[parts.length - 1];
+        return last.start() + last.size();
+    }
+
+    /** Return the number of segments kept after the base of the
+     *  index. */
+    int segments() {
+        Part[] parts = parts();
+        return parts == null ? 0 : parts.length - 1;
+    }
+
+    /** Return whether commit ID is indexed. */
+    boolean contains(ObjectId id) {
+        return number(id) >= 0;
+    }
+
+    /** Return the ids of the commits whose message is exactly MESSAGE, in
+     *  the order they were added. */
+    List<ObjectId> find(String message) {
+        ArrayList<ObjectId> result = new ArrayList<>();
+        for (ObjectId id : grep(message)) {
+            if (ObjectStore.readCommit(id).message().equals(message)) {
+                result.add(id);
+            }
+        }
+        return result;
+    }
+
+    /** Return the ids of the commits whose messages contain every word of
+     *  WORDS, in the order they were added. */
+    List<ObjectId> grep(String words) {
+        List<String> wanted = words(words);
+        Part[] parts = parts();
+        ArrayList<ObjectId> result = new ArrayList<>();
+        if (parts == null) {
+            CommitGraph graph = ObjectStore.commitGraph();
+            for (int k = 0; k < graph.size(); k += 1) {
+                ObjectId id = graph.id(k);
+                Commit commit = ObjectStore.readCommit(id);
+                if (words(commit.message()).containsAll(wanted)) {
+                    result.add(id);
+                }
+            }
+            return result;
+        }
+        byte[][] encoded = new byte[wanted.size()][];
+        for (int i = 0; i < encoded.length; i += 1) {
+            encoded[i] = wanted.get(i).getBytes(StandardCharsets.UTF_8);
+        }
+        for (Part part : parts) {
+            for (int number : part.grep(encoded)) {
+                result.add(part.id(number));
+            }
+        }
+        return result;
+    }
+
+    /** Add COMMITS to the index, skipping any already in it, as a new
+     *  segment, merged with those before it as needed. */
+    void add(Collection<Commit> commits) {
+        _parts = null;
+        Part[] parts = parts();
+        ArrayList<Commit> added = new ArrayList<>();
+        HashMap<ObjectId, Commit> batch = new HashMap<>();
+        for (Commit commit : commits) {
+            batch.put(commit.id(), commit);
+        }
+        if (parts == null) {
+            CommitGraph graph = ObjectStore.commitGraph();
+            Integer[] order = new Integer[graph.size()];
+            for (int k = 0; k < order.length; k += 1) {
+                order[k] = k;
+            }
+            Arrays.sort(order, (x, y) -> Long.compare(graph.time(x),
+                    graph.time(y)));
+            for (int k : order) {
+                ObjectId id = graph.id(k);
+                Commit commit = batch.remove(id);
+                added.add(commit != null ? commit
+                        : ObjectStore.readCommit(id));
+            }
+        }
+        for (Commit commit : commits) {
+            if (batch.remove(commit.id()) != null && !contains(commit.id())) {
+                added.add(commit);
+            }
+        }
+        if (parts == null) {
+            rebuild(added);
+        } else if (!added.isEmpty()) {
+            append(parts, added);
+        }
+    }
+
+    /** Remove every commit but those in KEEP from the index, renumbering
+     *  the rest in the same order. Their messages are read again. */
+    void retain(Set<ObjectId> keep) {
+        _parts = null;
+        if (parts() == null) {
+            return;
+        }
+        ArrayList<Commit> kept = new ArrayList<>();
+        for (int n = 0; n < size(); n += 1) {
+            ObjectId id = id(n);
+            if (keep.contains(id)) {
+                kept.add(ObjectStore.readCommit(id));
+            }
+        }
+        if (kept.size() < size()) {
+            rebuild(kept);
+        }
+    }
+
+    /** Return the distinct words of TEXT, in order of first use. */
+    static List<String> words(String text) {
+        LinkedHashSet<String> result = new LinkedHashSet<>();
+        StringBuilder word = new StringBuilder();
+        for (int i = 0; i <= text.length(); ) {
+            int c = i < text.length() ? text.codePointAt(i) : ' ';
+            if (Character.isLetterOrDigit(c)) {
+                if (word.codePointCount(0, word.length()) < MAX_WORD) {
+                    word.appendCodePoint(Character.toLowerCase(c));
+                }
+            } else if (word.length() > 0) {
+                result.add(word.toString());
+                word.setLength(0);
+            }
+            i += Character.charCount(c);
+        }
+        return new ArrayList<>(result);
+    }
+
+    /** Return the id of commit number N. */
+    ObjectId id(int n) {
+        Part[] parts = parts();
+        int k = parts.length - 1;
+        while (parts[k].start() > n) {
+            k -= 1;
+        }
+        return parts[k].id(n - parts[k].start());
+    }
+
+    /** Return the number of commit ID, or -1 if it is not indexed. */
+    private int number(ObjectId id) {
+        Part[] parts = parts();
+        if (parts == null) {
+            return -1;
+        }
+        byte[] hash = id.toBytes();
+        for (Part part : parts) {
+            int n = part.number(hash);
+            if (n >= 0) {
+                return part.start() + n;
+            }
+        }
+        return -1;
+    }
+
+    /** Replace the index with a base holding COMMITS alone, under a new
+     *  stamp, and delete every segment. */
+    private void rebuild(List<Commit> commits) {
+        int stamp = new Random().nextInt();
+        write(_file, Part.build(0, stamp, commits));
+        List<String> names = plainFilenamesIn(_file.getParentFile());
+        String prefix = _file.getName() + ".";
+        for (String name : names == null ? List.<String>of() : names) {
+            if (name.startsWith(prefix)
+                && name.substring(prefix.length()).matches("[0-9]+")) {
+                new File(_file.getParentFile(), name).delete();
+            }
+        }
+    }
+
+    /** Add ADDED to the index whose parts are PARTS as a new segment,
+     *  first merging it with the last of PARTS for as long as that holds
+     *  no more commits than it. */
+    private void append(Part[] parts, List<Commit> added) {
+        Part last = parts[parts.length - 1];
+        Part part = Part.build(last.start() + last.size(), parts[0].stamp(),
+                added);
+        int from = parts.length;
+        while (from > 0 && parts[from - 1].size() <= part.size()) {
+            from -= 1;
+            part = Part.merge(parts[from], part);
+        }
+        write(from == 0 ? _file : segment(part.start()), part);
+        for (int k = from + 1; k < parts.length; k += 1) {
+            segment(parts[k].start()).delete();
+        }
+    }
+
+    /** Return the file of the segment whose first commit is number
+     *  START. */
+    private File segment(int start) {
+        return new File(_file.getPath() + "." + start);
+    }
+
+    /** Replace FILE with PART, writing it to a temporary file of this
+     *  writer's own beside the old file and renaming it into place. */
+    private void write(File file, Part part) {
+        File temp = ObjectStore.tempFile(file);
+        try {
+            Files.write(temp.toPath(), part.bytes());
+            Files.move(temp.toPath(), file.toPath(),
+                    StandardCopyOption.ATOMIC_MOVE,
+                    StandardCopyOption.REPLACE_EXISTING);
+        } catch (IOException excp) {
+            throw error("Could not write message index: %s",
+                    excp.getMessage());
+        }
+        _parts = null;
+    }
+
+    /** Return the mapped parts of the index, mapping them on first use:
+     *  its base, followed by each segment that takes up where those
+     *  before it end and carries the base's stamp. Return null if there
+     *  is no index file yet. */
+    private Part[] parts() {
+        Part[] result = _parts;
+        if (result == null && _file.exists()) {
+            ArrayList<Part> parts = new ArrayList<>();
+            parts.add(Part.map(_file));
+            for (int next = parts.get(0).size(); true; ) {
+                File file = segment(next);
+                Part part = file.exists() ? Part.map(file) : null;
+                if (part == null || part.start() != next || part.size() == 0
+                    || part.stamp() != parts.get(0).stamp()) {
+                    break;
+                }
+                parts.add(part);
+                next += part.size();
+            }
+            result = parts.toArray(new Part[0]);
+            _parts = result;
+        }
+        return result;
+    }
+
+    /** One part of the index, over the contents of its file. */
+    private static class Part {
+
+        /** A part over BUF. */
+        Part(ByteBuffer buf) {
+            _buf = buf;
+        }
+
+        /** Return the part in FILE, mapped. */
+        static Part map(File file) {
+            ByteBuffer buf;
+            try (FileChannel channel = FileChannel.open(file.toPath())) {
+                buf = channel.map(FileChannel.MapMode.READ_ONLY, 0,
+                        channel.size());
+            } catch (IOException excp) {
+                throw error("Could not map message index: %s",
+                        excp.getMessage());
+            }
+            if (buf.limit() < HEADER_SIZE || buf.getInt(0) != MAGIC) {
+                throw error("Corrupt message index %s.", file);
+            }
+            return new Part(buf);
+        }
+
+        /** Return a part of COMMITS, numbered in order from START in the
+         *  index, under the base stamp STAMP. Their messages are read. */
+        static Part build(int start, int stamp, List<Commit> commits) {
+            int n = commits.size();
+            TreeMap<byte[], ArrayList<Integer>> fresh =
+                new TreeMap<>(Arrays::compareUnsigned);
+            ByteArrayOutputStream ids = new ByteArrayOutputStream();
+            for (int i = 0; i < n; i += 1) {
+                ids.writeBytes(commits.get(i).id().toBytes());
+                for (String word
+                         : MessageIndex.words(commits.get(i).message())) {
+                    fresh.computeIfAbsent(
+                            word.getBytes(StandardCharsets.UTF_8),
+                            w -> new ArrayList<>()).add(i);
+                }
+            }
+            byte[] idBytes = ids.toByteArray();
+            Integer[] order = new Integer[n];
+            for (int i = 0; i < n; i += 1) {
+                order[i] = i;
+            }
+            Arrays.sort(order, (x, y) -> compareIds(idBytes, x, y));
+            int[] byId = new int[n];
+            for (int i = 0; i < n; i += 1) {
+                byId[i] = order[i];
+            }
+
+            ByteArrayOutputStream names = new ByteArrayOutputStream(),
+                postings = new ByteArrayOutputStream();
+            ArrayList<int[]> records = new ArrayList<>();
+            for (Map.Entry<byte[], ArrayList<Integer>> entry
+                     : fresh.entrySet()) {
+                names.writeBytes(entry.getKey());
+                int last = 0;
+                for (int number : entry.getValue()) {
+                    writeVarint(postings, number - last);
+                    last = number;
+                }
+                records.add(new int[] {names.size(), postings.size(),
+                                       entry.getValue().size(), last});
+            }
+            return assemble(start, stamp, idBytes, byId, records, names,
+                    postings);
+        }
+
+        /** Return the part holding the commits of A followed by those of
+         *  B, which must take up where A ends. The posting lists of both
+         *  are copied as they are, but for the first posting of each of
+         *  B's, which is renumbered to follow A's. */
+        static Part merge(Part a, Part b) {
+            int na = a.size(), nb = b.size(), n = na + nb;
+            int size = PackFile.HASH_SIZE;
+            byte[] idBytes = new byte[n * size];
+            a._buf.get(HEADER_SIZE, idBytes, 0, na * size);
+            b._buf.get(HEADER_SIZE, idBytes, na * size, nb * size);
+            int[] byId = new int[n];
+            for (int k = 0, i = 0, j = 0; k < n; k += 1) {
+                int x = i < na ? a.byId(i) : 0, y = j < nb ? b.byId(j) + na : 0;
+                if (j == nb || i < na && compareIds(idBytes, x, y) < 0) {
+                    byId[k] = x;
+                    i += 1;
+                } else {
+                    byId[k] = y;
+                    j += 1;
+                }
+            }
+
+            ByteArrayOutputStream names = new ByteArrayOutputStream(),
+                postings = new ByteArrayOutputStream();
+            ArrayList<int[]> records = new ArrayList<>();
+            int wa = a.words(), wb = b.words();
+            for (int i = 0, j = 0; i < wa || j < wb; ) {
+                byte[] x = i < wa ? a.word(i) : null,
+                    y = j < wb ? b.word(j) : null;
+                int cmp = x == null ? 1 : y == null ? -1
+                    : Arrays.compareUnsigned(x, y);
+                int count = 0, last = 0;
+                names.writeBytes(cmp <= 0 ? x : y);
+                if (cmp <= 0) {
+                    a.copyPostings(i, 0, postings);
+                    count = a.count(i);
+                    last = a.last(i);
+                    i += 1;
+                }
+                if (cmp >= 0) {
+                    b.copyPostings(j, count == 0 ? na : na - last, postings);
+                    count += b.count(j);
+                    last = na + b.last(j);
+                    j += 1;
+                }
+                records.add(new int[] {names.size(), postings.size(), count,
+                                       last});
+            }
+            return assemble(a.start(), a.stamp(), idBytes, byId, records,
+                    names, postings);
+        }
+
+        /** Return a part of the commits with ids IDS, starting at START
+         *  in the index under base stamp STAMP, with the commit numbers
+         *  BYID sorted by id, word records RECORDS, and word and posting
+         *  data NAMES and POSTINGS. */
+        private static Part assemble(int start, int stamp, byte[] ids,
+                                     int[] byId, List<int[]> records,
+                                     ByteArrayOutputStream names,
+                                     ByteArrayOutputStream postings) {
+            ByteBuffer out = ByteBuffer.allocate(HEADER_SIZE + ids.length
+                    + 4 * byId.length + WORD_SIZE * records.size()
+                    + names.size() + postings.size());
+            out.putInt(MAGIC).putInt(byId.length).putInt(records.size())
+                .putInt(start).putInt(stamp);
+            out.put(ids);
+            for (int number : byId) {
+                out.putInt(number);
+            }
+            for (int[] record : records) {
+                for (int field : record) {
+                    out.putInt(field);
+                }
+            }
+            out.put(names.toByteArray()).put(postings.toByteArray());
+            return new Part(out);
+        }
+
+        /** Return the contents of this part, which must have been built
+         *  rather than mapped. */
+        byte[] bytes() {
+            return _buf.array();
+        }
+
+        /** Return the number of commits in this part. */
+        int size() {
+            return _buf.getInt(4);
+        }
+
+        /** Return the number within the index of this part's first
+         *  commit. */
+        int start() {
+            return _buf.getInt(12);
+        }
+
+        /** Return the stamp of the base this part belongs to. */
+        int stamp() {
+            return _buf.getInt(16);
+        }
+
+        /** Return the id of commit number N of this part. */
+        ObjectId id(int n) {
+            return ObjectId.of(hash(n), 0);
+        }
+
+        /** Return the number within this part of the commit whose binary
+         *  id is HASH, or -1 if it is not in this part. */
+        int number(byte[] hash) {
+            int lo = 0, hi = size() - 1;
+            while (lo <= hi) {
+                int mid = (lo + hi) >>> 1;
+                int n = byId(mid);
+                int cmp = Arrays.compareUnsigned(hash(n), hash);
+                if (cmp < 0) {
+                    lo = mid + 1;
+                } else if (cmp > 0) {
+                    hi = mid - 1;
+                } else {
+                    return n;
+                }
+            }
+            return -1;
+        }
+
+        /** Return the numbers within this part of the commits whose
+         *  messages use every one of WORDS, in increasing order. */
+        int[] grep(byte[][] words) {
+            if (words.length == 0) {
+                int[] result = new int[size()];
+                for (int n = 0; n < result.length; n += 1) {
+                    result[n] = n;
+                }
+                return result;
+            }
+            Integer[] order = new Integer[words.length];
+            for (int i = 0; i < order.length; i += 1) {
+                order[i] = find(words[i]);
+                if (order[i] < 0) {
+                    return new int[0];
+                }
+            }
+            Arrays.sort(order, (x, y) -> Integer.compare(count(x),
+                    count(y)));
+            int[] numbers = postings(order[0], null);
+            for (int i = 1; i < order.length && numbers.length > 0; i += 1) {
+                numbers = postings(order[i], numbers);
+            }
+            return numbers;
+        }
+
+        /** Return the binary id of commit number N. */
+        private byte[] hash(int n) {
+            byte[] result = new byte[PackFile.HASH_SIZE];
+            _buf.get(HEADER_SIZE + n * PackFile.HASH_SIZE, result);
+            return result;
+        }
+
+        /** Return the number of the commit that is Ith by id. */
+        private int byId(int i) {
+            return _buf.getInt(byIdStart() + 4 * i);
+        }
+
+        /** Return the record number of the word WORD, or -1 if no commit
+         *  in this part uses it. */
+        private int find(byte[] word) {
+            int lo = 0, hi = words() - 1;
+            while (lo <= hi) {
+                int mid = (lo + hi) >>> 1;
+                int start = wordData() + wordStart(mid),
+                    end = wordData() + wordEnd(mid);
+                int cmp = 0;
+                for (int i = 0; cmp == 0 && i < Math.min(end - start,
+                         word.length); i += 1) {
+                    cmp = Integer.compare(_buf.get(start + i) & 0xFF,
+                            word[i] & 0xFF);
+                }
+                if (cmp == 0) {
+                    cmp = Integer.compare(end - start, word.length);
+                }
+                if (cmp < 0) {
+                    lo = mid + 1;
+                } else if (cmp > 0) {
+                    hi = mid - 1;
+                } else {
+                    return mid;
+                }
+            }
+            return -1;
+        }
+
+        /** Return the UTF-8 bytes of word K. */
+        private byte[] word(int k) {
+            return copy(_buf, wordData() + wordStart(k),
+                    wordEnd(k) - wordStart(k));
+        }
+
+        /** Return the postings of word record K, keeping only those in
+         *  WITHIN, a sorted array, unless WITHIN is null. Decoding stops
+         *  once past the last of WITHIN. */
+        private int[] postings(int k, int[] within) {
+            int at = postingData() + postingStart(k),
+                end = postingData() + postingEnd(k);
+            int[] result = new int[within == null ? count(k) : within.length];
+            int found = 0, next = 0, number = 0;
+            boolean first = true;
+            while (at < end) {
+                int value = 0, shift = 0, b;
+                do {
+                    b = _buf.get(at++);
+                    value |= (b & 0x7F) << shift;
+                    shift += 7;
+                } while ((b & 0x80) != 0);
+                number = first ? value : number + value;
+                first = false;
+                if (within == null) {
+                    result[found++] = number;
+                    continue;
+                }
+                while (next < within.length && within[next] < number) {
+                    next += 1;
+                }
+                if (next == within.length) {
+                    break;
+                } else if (within[next] == number) {
+                    result[found++] = number;
+                }
+            }
+            return Arrays.copyOf(result, found);
+        }
+
+        /** Append the posting list of word K to OUT, adding SHIFT to its
+         *  first posting and copying the gaps after it as they are. */
+        private void copyPostings(int k, int shift, ByteArrayOutputStream out) {
+            int at = postingData() + postingStart(k),
+                end = postingData() + postingEnd(k);
+            int value = 0, bits = 0, b;
+            do {
+                b = _buf.get(at++);
+                value |= (b & 0x7F) << bits;
+                bits += 7;
+            } while ((b & 0x80) != 0);
+            writeVarint(out, value + shift);
+            out.write(copy(_buf, at, end - at), 0, end - at);
+        }
+
+        /** Return the number of distinct words in this part. */
+        private int words() {
+            return _buf.getInt(8);
+        }
+
+        /** Return the offset of the commit numbers sorted by id. */
+        private int byIdStart() {
+            return HEADER_SIZE + size() * PackFile.HASH_SIZE;
+        }
+
+        /** Return the offset of field FIELD of word record K. */
+        private int field(int k, int field) {
+            return byIdStart() + 4 * size() + k * WORD_SIZE + 4 * field;
+        }
+
+        /** Return the offset of the word data. */
+        private int wordData() {
+            return field(words(), 0);
+        }
+
+        /** Return the offset of the posting data. */
+        private int postingData() {
+            return wordData() + (words() == 0 ? 0 : wordEnd(words() - 1));
+        }
+
+        /** Return the start of word K within the word data. */
+        private int wordStart(int k) {
+            return k == 0 ? 0 : wordEnd(k - 1);
+        }
+
+        /** Return the end of word K within the word data. */
+        private int wordEnd(int k) {
+            return _buf.getInt(field(k, 0));
+        }
+
+        /** Return the start of word K's postings within the posting
+         *  data. */
+        private int postingStart(int k) {
+            return k == 0 ? 0 : postingEnd(k - 1);
+        }
+
+        /** Return the end of word K's postings within the posting
+         *  data. */
+        private int postingEnd(int k) {
+            return _buf.getInt(field(k, 1));
+        }
+
+        /** Return the number of postings of word K. */
+        private int count(int k) {
+            return _buf.getInt(field(k, 2));
+        }
+
+        /** Return the last posting of word K. */
+        private int last(int k) {
+            return _buf.getInt(field(k, 3));
+        }
+
+        /** The contents of this part. */
+        private final ByteBuffer _buf;
+
+    }
+
+    /** Compare the ids of commit numbers X and Y in IDS, the ids of all
+     *  commits by number. */
+    private static int compareIds(byte[] ids, int x, int y) {
+        int size = PackFile.HASH_SIZE;
+        return Arrays.compareUnsigned(ids, x * size, (x + 1) * size,
+                                      ids, y * size, (y + 1) * size);
+    }
+
+    /** Return the LENGTH bytes at OFFSET in BUF. */
+    private static byte[] copy(ByteBuffer buf, int offset, int length) {
+        byte[] result = new byte[length];
+        buf.get(offset, result);
+        return result;
+    }
+
+    /** Write VALUE to OUT as an unsigned LEB128 varint. */
+    private static void writeVarint(ByteArrayOutputStream out, int value) {
+        while ((value & ~0x7F) != 0) {
+            out.write((value & 0x7F) | 0x80);
+            value >>>= 7;
+        }
+        out.write(value);
+    }
+
+    /** File holding the base of the index, beside which its segments are
+     *  kept. */
+    private final File _file;
+
+    /** The parts of the index, once mapped. Null until first use.
+     *  Published only once checked, for threads reading it at once. */
+    private volatile Part[] _parts;
+
+}
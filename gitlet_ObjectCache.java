@@ -0,0 +1,112 @@
+package gitlet;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/** A cache of objects by hash holding at most a fixed number of bytes,
+ *  evicting the least recently used objects first. Each object is
+ *  charged the weight given when it is added, normally its stored size.
+ *  Hits, misses and evictions are counted so that budgets can be tuned.
+ *  Safe for use from several threads.
+ *  @param <V> the type of cached object. */
+class ObjectCache<V> {
+
+    /** An empty cache named NAME holding at most BUDGET bytes. */
+    ObjectCache(String name, long budget) {
+        _name = name;
+        _budget = budget;
+        _entries = new LinkedHashMap<>(16, 0.75f, true);
+    }
+
+    /** Return the object with hash ID, or null if it is not cached. */
+    synchronized V get(ObjectId id) {
+        Entry<V> entry = _entries.get(id);
+        if (entry == null) {
+            _misses += 1;
+            return null;
+        }
+        _hits += 1;
+        return entry.value;
+    }
+
+    /** Cache VALUE under hash ID, charging it WEIGHT bytes and evicting
+     *  older objects as needed. Objects heavier than the whole budget are
+     *  not cached. */
+    synchronized void put(ObjectId id, V value, long weight) {
+        if (weight > _budget) {
+            return;
+        }
+        Entry<V> old = _entries.put(id, new Entry<>(value, weight));
+        if (old != null) {
+            _weight -= old.weight;
+        }
+        _weight += weight;
+        Iterator<Map.Entry<ObjectId, Entry<V>>> eldest =
+                _entries.entrySet().iterator();
+        while (_weight > _budget && eldest.hasNext()) {
+            _weight -= eldest.next().getValue().weight;
+            eldest.remove();
+            _evictions += 1;
+        }
+    }
+
+    /** Remove every object from the cache. */
+    synchronized void clear() {
+        _entries.clear();
+        _weight = 0;
+    }
+
+    synchronized long hits() {
+        return _hits;
+    }
+
+    synchronized long misses() {
+        return _misses;
+    }
+
+    synchronized long evictions() {
+        return _evictions;
+    }
+
+    /** Return the total weight of the cached objects. */
+    synchronized long weight() {
+        return _weight;
+    }
+
+    @Override
+    public synchronized String toString() {
+        return String.format("%s cache: %d objects, %d/%d bytes, "
+                + "%d hits, %d misses, %d evictions", _name, _entries.size(),
+                _weight, _budget, _hits, _misses, _evictions);
+    }
+
+    /** A cached object and its weight. */
+    private static class Entry<V> {
+        Entry(V value, long weight) {
+            this.value = value;
+            this.weight = weight;
+        }
+
+        /** The object. */
+        private final V value;
+        /** Bytes charged for the object. */
+        private final long weight;
+    }
+
+    /** Name used when reporting statistics. */
+    private final String _name;
+
+    /** Largest total weight held. */
+    private final long _budget;
+
+    /** Cached objects by hash, least recently used first. */
+    private final LinkedHashMap<ObjectId, Entry<V>> _entries;
+
+    /** Total weight of the cached objects. */
+    private long _weight;
+
+    /** Statistics. */
+    private long _hits, _misses, _evictions;
+
+}
@@ -0,0 +1,386 @@
+package gitlet;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.ObjectInputStream;
+import java.io.ObjectStreamClass;
+import java.io.Serializable;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+
+import static gitlet.Utils.*;
+
+/** The binary encoding of commits and staged blobs, read and written by
+ *  hand rather than by Java serialization. Every object starts with a
+ *  two-byte magic number and a version byte. Numbers are unsigned
+ *  varints, hashes are written as their 20 raw bytes, and strings as a
+ *  varint length followed by UTF-8.
+ *
+ *  Commit: COMMIT_MAGIC, VERSION, id, time, message, a byte whose bits 0
+ *  and 1 say whether the first and second parents follow, the parents,
+ *  the tree hash of the manifest, the number of tracked files, and for
+ *  each its name, blob hash and size.
+ *
+ *  Staged blob: BLOB_MAGIC, VERSION, name, blob hash and size.
+ *
+ *  Objects written by Java serialization, which begin with STREAM_MAGIC,
+ *  are still read, and migrate() rewrites a repository created before
+ *  this format into it. */
+class ObjectFormat {
+
+    /** Leading bytes of an encoded commit: "gc". */
+    static final int COMMIT_MAGIC = 0x6763;
+
+    /** Leading bytes of an encoded staged blob: "gb". */
+    static final int BLOB_MAGIC = 0x6762;
+
+    /** Leading bytes of every Java serialization stream. */
+    static final int STREAM_MAGIC = 0xACED;
+
+    /** Current version of the encoding. */
+    static final int VERSION = 1;
+
+    /** Return COMMIT in the binary encoding. */
+    static byte[] encode(Commit commit) {
+        Writer out = new Writer();
+        out.writeShort(COMMIT_MAGIC);
+        out.write(VERSION);
+        out.writeId(commit.id());
+        out.writeVarint(commit.timestamp());
+        out.writeString(commit.message());
+        ObjectId parent = commit.parentId(), merge = commit.mergeParentId();
+        out.write((parent != null ? 1 : 0) | (merge != null ? 2 : 0));
+        if (parent != null) {
+            out.writeId(parent);
+        }
+        if (merge != null) {
+            out.writeId(merge);
+        }
+        out.writeId(commit.manifest().hash());
+        List<Manifest.Entry> entries = commit.manifest().entries();
+        out.writeVarint(entries.size());
+        for (Manifest.Entry entry : entries) {
+            out.writeString(entry.name());
+            out.writeId(entry.id());
+            out.writeVarint(entry.size());
+        }
+        return out.toByteArray();
+    }
+
+    /** Return the staged BLOB's name, hash and size in the binary
+     *  encoding. */
+    static byte[] encode(Blob blob) {
+        Writer out = new Writer();
+        out.writeShort(BLOB_MAGIC);
+        out.write(VERSION);
+        out.writeString(blob.name());
+        out.writeId(blob.id());
+        out.writeVarint(blob.size());
+        return out.toByteArray();
+    }
+
+    /** Return the commit encoded in BYTES, in either the binary encoding
+     *  or Java serialization. */
+    static Commit decodeCommit(byte[] bytes) {
+        if (magic(bytes) == STREAM_MAGIC) {
+            Serializable old = deserialize(bytes, Serializable.class);
+            if (!(old instanceof Commit)) {
+                throw error("Commit predates the current object format; "
+                        + "the repository must be migrated.");
+            }
+            return (Commit) old;
+        }
+        Reader in = new Reader(bytes, COMMIT_MAGIC);
+        ObjectId id = in.readId();
+        long time = in.readVarint();
+        String message = in.readString();
+        int parents = in.read();
+        ObjectId parent = (parents & 1) != 0 ? in.readId() : null;
+        ObjectId merge = (parents & 2) != 0 ? in.readId() : null;
+        ObjectId tree = in.readId();
+        Manifest manifest = new Manifest();
+        for (long n = in.readVarint(); n > 0; n -= 1) {
+            manifest.put(in.readString(), in.readId(), in.readVarint());
+        }
+        manifest.setHash(tree);
+        return new Commit(id, time, message, parent, merge, manifest);
+    }
+
+    /** Return the staged blob encoded in BYTES, in either the binary
+     *  encoding or Java serialization. */
+    static Blob decodeBlob(byte[] bytes) {
+        if (magic(bytes) == STREAM_MAGIC) {
+            Serializable old = deserialize(bytes, Serializable.class);
+            if (!(old instanceof Blob)) {
+                throw error("Staged file predates the current object "
+                        + "format; the repository must be migrated.");
+            }
+            return (Blob) old;
+        }
+        Reader in = new Reader(bytes, BLOB_MAGIC);
+        return new Blob(in.readString(), in.readId(), in.readVarint());
+    }
+
+    /** Write the staged BLOB to FILE. */
+    static void writeStaged(File file, Blob blob) {
+        writeContents(file, (Object) encode(blob));
+    }
+
+    /** Return the staged blob in FILE. */
+    static Blob readStaged(File file) {
+        return decodeBlob(readContents(file));
+    }
+
+    /** Rewrite a repository created before this format, in which every
+     *  loose commit, file and staged file is a Java-serialized object
+     *  holding its files' hashes or contents. Each commit becomes a binary
+     *  commit under the same hash, with a manifest built from the names
+     *  and sizes of its blobs; each blob becomes a "blob <size>\0" object
+     *  under the same hash; and each staged file a binary staged blob
+     *  stored under its name, as ObjectStore.stagedFile expects.
+     *  Unsharded loose objects are first moved into their shards.
+     *  Commits are rewritten before the blobs they need, and objects
+     *  already in the current format are left alone, so migrate() may be
+     *  run again after an interruption. */
+    static void migrate() {
+        ObjectStore.shardLooseObjects();
+        HashMap<ObjectId, Manifest.Entry> legacy = new HashMap<>();
+        for (ObjectId id : ObjectStore.looseIds(ObjectStore.FILES)) {
+            LegacyBlob old = readLegacyBlob(
+                    ObjectStore.looseFile(ObjectStore.FILES, id));
+            if (old != null) {
+                legacy.put(id, new Manifest.Entry(old._name, id,
+                        old._content.length));
+            }
+        }
+        List<Commit> commits = new ArrayList<>();
+        for (ObjectId id : ObjectStore.looseIds(ObjectStore.COMMITS)) {
+            byte[] bytes = Codec.decode(readContents(
+                    ObjectStore.looseFile(ObjectStore.COMMITS, id)));
+            if (magic(bytes) != STREAM_MAGIC) {
+                continue;
+            }
+            Serializable old = deserialize(bytes, Serializable.class);
+            if (old instanceof LegacyCommit) {
+                commits.add(((LegacyCommit) old).convert(legacy));
+            } else {
+                commits.add((Commit) old);
+            }
+        }
+        ObjectStore.writeCommits(commits);
+        for (ObjectId id : ObjectStore.looseIds(ObjectStore.FILES)) {
+            LegacyBlob old = readLegacyBlob(
+                    ObjectStore.looseFile(ObjectStore.FILES, id));
+            if (old != null) {
+                ObjectStore.writeBlob(id, old._content);
+            }
+        }
+        for (ObjectId id : stagedIds(ObjectStore.STAGING)) {
+            File staged = join(ObjectStore.STAGING, id.toString());
+            LegacyBlob old = readLegacyBlob(staged);
+            if (old != null) {
+                ObjectStore.writeBlob(id, old._content);
+                writeStaged(ObjectStore.stagedFile(old._name),
+                        new Blob(old._name, id, old._content.length));
+                staged.delete();
+            }
+        }
+    }
+
+    /** Return the ids of the files staged in the unsharded directory DIR,
+     *  ignoring temporary files. */
+    private static List<ObjectId> stagedIds(File dir) {
+        List<ObjectId> result = new ArrayList<>();
+        List<String> names = plainFilenamesIn(dir);
+        if (names != null) {
+            for (String name : names) {
+                if (ObjectId.isId(name)) {
+                    result.add(ObjectId.of(name));
+                }
+            }
+        }
+        return result;
+    }
+
+    /** Return the blob in FILE if it was written before this format, or
+     *  null if it was not. */
+    private static LegacyBlob readLegacyBlob(File file) {
+        byte[] bytes = Codec.decode(readContents(file));
+        if (magic(bytes) != STREAM_MAGIC) {
+            return null;
+        }
+        Serializable old = deserialize(bytes, Serializable.class);
+        return old instanceof LegacyBlob ? (LegacyBlob) old : null;
+    }
+
+    /** Return the first two bytes of BYTES as a number. */
+    private static int magic(byte[] bytes) {
+        if (bytes.length < 2) {
+            return -1;
+        }
+        return ((bytes[0] & 0xFF) << 8) | (bytes[1] & 0xFF);
+    }
+
+    /** Return the Java-serialized object of type EXPECTEDCLASS in BYTES.
+     *  Classes are matched by name only, so objects written by earlier
+     *  versions of Commit and Blob can still be read; those written
+     *  before this format are read as a LegacyCommit or LegacyBlob. */
+    private static <T extends Serializable> T deserialize(
+            byte[] bytes, Class<T> expectedClass) {
+        try (ObjectInputStream in = new LenientInput(
+                new ByteArrayInputStream(bytes))) {
+            return expectedClass.cast(in.readObject());
+        } catch (IOException | ClassCastException
+                | ClassNotFoundException excp) {
+            throw error("Could not read object: %s", excp.getMessage());
+        }
+    }
+
+    /** A Java deserialization stream that ignores serialVersionUIDs and
+     *  maps the original Commit and Blob classes to their legacy
+     *  stand-ins. */
+    private static class LenientInput extends ObjectInputStream {
+        LenientInput(InputStream in) throws IOException {
+            super(in);
+        }
+
+        @Override
+        protected ObjectStreamClass readClassDescriptor()
+            throws IOException, ClassNotFoundException {
+            ObjectStreamClass desc = super.readClassDescriptor();
+            if (desc.getName().equals(Commit.class.getName())
+                    && desc.getField("_hashes") != null) {
+                return ObjectStreamClass.lookup(LegacyCommit.class);
+            } else if (desc.getName().equals(Blob.class.getName())
+                    && desc.getField("_content") != null) {
+                return ObjectStreamClass.lookup(LegacyBlob.class);
+            }
+            ObjectStreamClass local =
+                ObjectStreamClass.lookup(Class.forName(desc.getName()));
+            return local != null ? local : desc;
+        }
+    }
+
+    /** A commit as serialized before manifests existed. */
+    private static class LegacyCommit implements Serializable {
+
+        /** Return this commit in the current form, taking the name and
+         *  size of each of its blobs from BLOBS. */
+        Commit convert(Map<ObjectId, Manifest.Entry> blobs) {
+            Manifest manifest = new Manifest();
+            for (String hash : _hashes) {
+                Manifest.Entry blob = blobs.get(ObjectId.of(hash));
+                if (blob == null) {
+                    throw error("Commit %s tracks missing blob %s.",
+                            _id, hash);
+                }
+                manifest.put(blob.name(), blob.id(), blob.size());
+            }
+            return new Commit(ObjectId.of(_id), _time, _message,
+                    _p == null ? null : ObjectId.of(_p),
+                    _m == null ? null : ObjectId.of(_m), manifest);
+        }
+
+        private File _commitPath;
+        private File _filesPath;
+        private long _time;
+        private String _datetime;
+        private String _id;
+        private String _message;
+        private String _p;
+        private String _m;
+        private HashSet<String> _hashes;
+    }
+
+    /** A blob as serialized before its contents were stored separately. */
+    private static class LegacyBlob implements Serializable {
+        private String _id;
+        private String _name;
+        private byte[] _content;
+    }
+
+    /** Writes the binary encoding into a growing buffer. */
+    private static class Writer extends ByteArrayOutputStream {
+
+        /** Write the low two bytes of V, high byte first. */
+        void writeShort(int v) {
+            write(v >>> 8);
+            write(v);
+        }
+
+        /** Write the non-negative V as an unsigned varint. */
+        void writeVarint(long v) {
+            Delta.writeVarint(this, v);
+        }
+
+        /** Write ID as its raw bytes. */
+        void writeId(ObjectId id) {
+            writeBytes(id.toBytes());
+        }
+
+        /** Write S as its UTF-8 length and bytes. */
+        void writeString(String s) {
+            byte[] bytes = s.getBytes(StandardCharsets.UTF_8);
+            writeVarint(bytes.length);
+            writeBytes(bytes);
+        }
+    }
+
+    /** Reads the binary encoding from an array. */
+    private static class Reader {
+
+        /** A reader over BYTES, which must start with MAGIC and a version
+         *  this class understands. */
+        Reader(byte[] bytes, int magic) {
+            _bytes = bytes;
+            if (magic(bytes) != magic) {
+                throw error("Unrecognized object format.");
+            }
+            _pos[0] = 2;
+            int version = read();
+            if (version != VERSION) {
+                throw error("Unsupported object format version %d.",
+                        version);
+            }
+        }
+
+        /** Return the next byte. */
+        int read() {
+            return _bytes[_pos[0]++] & 0xFF;
+        }
+
+        /** Return the next unsigned varint. */
+        long readVarint() {
+            return Delta.readVarint(_bytes, _pos);
+        }
+
+        /** Return the id in the next ObjectId.SIZE bytes. */
+        ObjectId readId() {
+            ObjectId result = ObjectId.of(_bytes, _pos[0]);
+            _pos[0] += ObjectId.SIZE;
+            return result;
+        }
+
+        /** Return the next length-prefixed UTF-8 string. */
+        String readString() {
+            int length = (int) readVarint();
+            String result = new String(_bytes, _pos[0], length,
+                    StandardCharsets.UTF_8);
+            _pos[0] += length;
+            return result;
+        }
+
+        /** The encoded object. */
+        private final byte[] _bytes;
+        /** Position of the next byte to read, boxed for Delta.readVarint. */
+        private final int[] _pos = new int[1];
+    }
+
+}
@@ -0,0 +1,150 @@
+package gitlet;
+
+import java.io.Serializable;
+
+import static gitlet.Utils.*;
+
+/** The SHA-1 hash naming a stored commit or blob, held as its 20 raw
+ *  bytes packed into two longs and an int rather than as 40 hex digits.
+ *  An ObjectId takes a third of the space of the equivalent String, and
+ *  compares and hashes in a few machine operations. Since SHA-1 output
+ *  is already uniformly distributed, its leading bytes serve directly as
+ *  the hash code.
+ *
+ *  ObjectIds are ordered as their bytes are, unsigned, so sorting by
+ *  ObjectId agrees with the sorted binary hashes in packs and the commit
+ *  graph. */
+final class ObjectId implements Comparable<ObjectId>, Serializable {
+
+    /** Length of an id in bytes. */
+    static final int SIZE = 20;
+
+    /** Return the id whose hex form is HEX, which must be exactly
+     *  UID_LENGTH hex digits. */
+    static ObjectId of(String hex) {
+        if (!isId(hex)) {
+            throw error("Invalid object id %s.", hex);
+        }
+        long w0 = 0, w1 = 0;
+        int w2 = 0;
+        for (int i = 0; i < 16; i += 1) {
+            w0 = (w0 << 4) | Character.digit(hex.charAt(i), 16);
+            w1 = (w1 << 4) | Character.digit(hex.charAt(16 + i), 16);
+        }
+        for (int i = 32; i < UID_LENGTH; i += 1) {
+            w2 = (w2 << 4) | Character.digit(hex.charAt(i), 16);
+        }
+        return new ObjectId(w0, w1, w2);
+    }
+
+    /** Return the id whose SIZE bytes start at OFFSET in RAW. */
+    static ObjectId of(byte[] raw, int offset) {
+        return new ObjectId(word(raw, offset, 8), word(raw, offset + 8, 8),
+                (int) word(raw, offset + 16, 4));
+    }
+
+    /** Return the id whose bytes are RAW. */
+    static ObjectId of(byte[] raw) {
+        return of(raw, 0);
+    }
+
+    /** Return whether S is the hex form of some id. */
+    static boolean isId(String s) {
+        if (s.length() != UID_LENGTH) {
+            return false;
+        }
+        for (int i = 0; i < UID_LENGTH; i += 1) {
+            if (Character.digit(s.charAt(i), 16) < 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /** An id with bytes W0, then W1, then W2, each high byte first. */
+    private ObjectId(long w0, long w1, int w2) {
+        _w0 = w0;
+        _w1 = w1;
+        _w2 = w2;
+    }
+
+    /** Return the SIZE bytes of this id. */
+    byte[] toBytes() {
+        byte[] result = new byte[SIZE];
+        copyTo(result, 0);
+        return result;
+    }
+
+    /** Store the SIZE bytes of this id into DEST starting at OFFSET. */
+    void copyTo(byte[] dest, int offset) {
+        for (int i = 0; i < 8; i += 1) {
+            dest[offset + i] = (byte) (_w0 >>> (56 - 8 * i));
+            dest[offset + 8 + i] = (byte) (_w1 >>> (56 - 8 * i));
+        }
+        for (int i = 0; i < 4; i += 1) {
+            dest[offset + 16 + i] = (byte) (_w2 >>> (24 - 8 * i));
+        }
+    }
+
+    @Override
+    public int compareTo(ObjectId other) {
+        int cmp = Long.compareUnsigned(_w0, other._w0);
+        if (cmp == 0) {
+            cmp = Long.compareUnsigned(_w1, other._w1);
+        }
+        if (cmp == 0) {
+            cmp = Integer.compareUnsigned(_w2, other._w2);
+        }
+        return cmp;
+    }
+
+    @Override
+    public boolean equals(Object obj) {
+        if (!(obj instanceof ObjectId)) {
+            return false;
+        }
+        ObjectId other = (ObjectId) obj;
+        return _w0 == other._w0 && _w1 == other._w1 && _w2 == other._w2;
+    }
+
+    @Override
+    public int hashCode() {
+        return (int) (_w0 >>> 32);
+    }
+
+    /** Return the UID_LENGTH hex digits of this id. */
+    @Override
+    public String toString() {
+        char[] result = new char[UID_LENGTH];
+        for (int i = 0; i < 16; i += 1) {
+            result[i] = HEX_DIGITS[(int) (_w0 >>> (60 - 4 * i)) & 0xF];
+            result[16 + i] = HEX_DIGITS[(int) (_w1 >>> (60 - 4 * i)) & 0xF];
+        }
+        for (int i = 0; i < 8; i += 1) {
+            result[32 + i] = HEX_DIGITS[(_w2 >>> (28 - 4 * i)) & 0xF];
+        }
+        return new String(result);
+    }
+
+    /** Return the LENGTH bytes at OFFSET in RAW as a big-endian number. */
+    private static long word(byte[] raw, int offset, int length) {
+        long result = 0;
+        for (int i = 0; i < length; i += 1) {
+            result = (result << 8) | (raw[offset + i] & 0xFF);
+        }
+        return result;
+    }
+
+    /** Lower-case hex digits by value. */
+    private static final char[] HEX_DIGITS = "0123456789abcdef".toCharArray();
+
+    /** The first eight bytes. */
+    private final long _w0;
+
+    /** The next eight bytes. */
+    private final long _w1;
+
+    /** The last four bytes. */
+    private final int _w2;
+
+}
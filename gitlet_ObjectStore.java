@@ -0,0 +1,852 @@
+package gitlet;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.TreeSet;
+
+import static gitlet.Utils.*;
+
+/** Access to every stored Commit and Blob. Objects are looked up in the
+ *  pack first and then among the loose, one-file-per-object copies in
+ *  .gitlet/commits and .gitlet/files. Loose objects are sharded by the
+ *  first byte of their ids, so that object ab12... is stored as ab/12...,
+ *  and no directory grows past a 256th of the objects.
+ *
+ *  Commits are stored in the binary ObjectFormat. Blobs are stored
+ *  either whole, as the header "blob <size>\0" followed by the raw file
+ *  contents, or as a delta against another blob, as
+ *  "delta <size> <depth> <base>\0" followed by a Delta. Whole blobs are
+ *  always written and read as streams so that their size is unbounded;
+ *  only blobs of at most DELTA_LIMIT bytes are ever stored as deltas.
+ *
+ *  Every object is additionally passed through a Codec on its way to and
+ *  from disk: new objects are written with the configured codec, FAST by
+ *  default, and repacks rewrite objects with DENSE. Blobs of at least
+ *  RAW_THRESHOLD bytes whose first SAMPLE_SIZE bytes do not compress, such
+ *  as images and archives, are instead stored uncompressed, and stay so
+ *  when packed. Checkout copies such a blob from the store to the working
+ *  file with FileChannel.transferTo, which the operating system serves
+ *  without passing the contents through the Java heap.
+ *
+ *  Loose objects are made durable before they appear under their names.
+ *  By default each is forced to disk as it is written; after
+ *  writeBehind(), they are written by an ObjectWriter and forced
+ *  together at the next sync(). */
+class ObjectStore {
+
+    /** Path to the repository. */
+    static final File REPO = new File("./.gitlet/");
+
+    /** Path to all loose commits. */
+    static final File COMMITS = new File("./.gitlet/commits/");
+
+    /** Path to all loose files. */
+    static final File FILES = new File("./.gitlet/files/");
+
+    /** Path to all staged files. */
+    static final File STAGING = new File("./.gitlet/staging/");
+
+    /** Path to the pack and its index. */
+    static final File PACK = new File("./.gitlet/pack/");
+
+    /** Path to the commit graph. */
+    static final File GRAPH = new File("./.gitlet/commit-graph");
+
+    /** Path to the index of commit messages. */
+    static final File MESSAGES = new File("./.gitlet/message-index");
+
+    /** Longest header of a stored blob. */
+    static final int MAX_HEADER = 128;
+
+    /** Number of shards in each loose object directory, one for each
+     *  value of an id's first byte. */
+    static final int SHARDS = 256;
+
+    /** Largest blob that is stored as, or used as the base of, a delta. */
+    static final long DELTA_LIMIT = 1 << 24;
+
+    /** Smallest blob stored uncompressed if it does not compress,
+     *  settable with the system property gitlet.raw.threshold. */
+    static final long RAW_THRESHOLD =
+        Long.getLong("gitlet.raw.threshold", 1 << 20);
+
+    /** Number of leading bytes of a blob tried for compression. */
+    static final int SAMPLE_SIZE = 1 << 16;
+
+    /** Longest chain of deltas that must be applied to rebuild a blob. */
+    static final int MAX_DELTA_DEPTH = 10;
+
+    /** Number of earlier versions tried as delta bases during repack. */
+    static final int DELTA_WINDOW = 10;
+
+    /** Bytes of commits kept in memory, settable with the system
+     *  property gitlet.cache.commits. */
+    static final long COMMIT_CACHE_BYTES =
+        Long.getLong("gitlet.cache.commits", 16 << 20);
+
+    /** Bytes of blob contents kept in memory, settable with the system
+     *  property gitlet.cache.blobs. */
+    static final long BLOB_CACHE_BYTES =
+        Long.getLong("gitlet.cache.blobs", 64 << 20);
+
+    /** Return the commit with hash ID, reusing a recently read copy
+     *  where possible. */
+    static Commit readCommit(ObjectId id) {
+        Commit cached = COMMIT_CACHE.get(id);
+        if (cached != null) {
+            return cached;
+        }
+        byte[] bytes = readBytes(COMMITS, id);
+        Commit result = ObjectFormat.decodeCommit(bytes);
+        COMMIT_CACHE.put(id, result, bytes.length);
+        return result;
+    }
+
+    /** Return the cache of recently read commits. */
+    static ObjectCache<Commit> commitCache() {
+        return COMMIT_CACHE;
+    }
+
+    /** Return the cache of recently read blob contents. */
+    static ObjectCache<byte[]> blobCache() {
+        return BLOB_CACHE;
+    }
+
+    /** Store COMMIT under its hash and record it in the commit graph. */
+    static void writeCommit(Commit commit) {
+        writeCommits(Collections.singletonList(commit));
+    }
+
+    /** Store each of COMMITS under its hash, then record them all in the
+     *  commit graph and the message index at once, so that they may be
+     *  ancestors of one another in any order. */
+    static void writeCommits(Collection<Commit> commits) {
+        for (Commit commit : commits) {
+            byte[] bytes = ObjectFormat.encode(commit);
+            writeLoose(COMMITS, commit.id(), _codec, bytes);
+            COMMIT_CACHE.put(commit.id(), commit, bytes.length);
+        }
+        afterSync(() -> {
+            commitGraph().add(commits);
+            messageIndex().add(commits);
+        });
+    }
+
+    /** From now on, write objects behind through an ObjectWriter rather
+     *  than one at a time, until the program exits. Objects written from
+     *  then on become durable at the next sync(), which is also made
+     *  at exit. */
+    static synchronized void writeBehind() {
+        if (_writer == null) {
+            _writer = new ObjectWriter();
+            Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+                try {
+                    _writer.sync();
+                } catch (GitletException excp) {
+                    System.err.println(excp.getMessage());
+                }
+            }));
+        }
+    }
+
+    /** Make every object written so far durable, and then run the actions
+     *  registered with afterSync(). A command must call this before
+     *  updating any branch to point at the objects it wrote. Objects
+     *  written one at a time are durable already. */
+    static void sync() {
+        if (_writer != null) {
+            _writer.sync();
+        }
+    }
+
+    /** Run ACTION once every object written so far is durable: at the
+     *  next sync() when writing behind, and at once otherwise. */
+    static void afterSync(Runnable action) {
+        if (_writer != null) {
+            _writer.afterSync(action);
+        } else {
+            action.run();
+        }
+    }
+
+    /** Return the id of the one commit whose hex id starts with ABBREV,
+     *  which may be a full id. The commit graph is searched first; the
+     *  loose commits sharing ABBREV's shard are listed only if the graph
+     *  has no match, as for commits written before the graph existed. */
+    static ObjectId resolveCommit(String abbrev) {
+        CommitGraph graph = commitGraph();
+        ArrayList<ObjectId> found = new ArrayList<>();
+        if (abbrev.length() > 0) {
+            for (int k : graph.matching(abbrev)) {
+                found.add(graph.id(k));
+            }
+            if (found.isEmpty()) {
+                found.addAll(looseIds(COMMITS, abbrev));
+            }
+        }
+        if (found.isEmpty()) {
+            throw error("No commit with that id exists.");
+        } else if (found.size() > 1) {
+            throw error("Ambiguous commit id %s: could be %s or %s.",
+                    abbrev, found.get(0), found.get(1));
+        }
+        return found.get(0);
+    }
+
+    /** Return the repository's commit graph, opening it on first use. */
+    static synchronized CommitGraph commitGraph() {
+        if (_graph == null) {
+            _graph = new CommitGraph(GRAPH);
+        }
+        return _graph;
+    }
+
+    /** Return the repository's index of commit messages, opening it on
+     *  first use. */
+    static synchronized MessageIndex messageIndex() {
+        if (_messages == null) {
+            _messages = new MessageIndex(MESSAGES);
+        }
+        return _messages;
+    }
+
+    /** Return the codec used for newly written objects. */
+    static Codec codec() {
+        return _codec;
+    }
+
+    /** Write all new objects with CODEC. */
+    static void setCodec(Codec codec) {
+        _codec = codec;
+    }
+
+    /** Store the contents of BLOB under its hash unless already present,
+     *  streaming them into place. */
+    static void writeBlob(Blob blob) {
+        if (contains(FILES, blob.id())) {
+            return;
+        }
+        File temp = tempFile(FILES, blob.id());
+        try (OutputStream out = codecFor(blob).encode(
+                new BufferedOutputStream(new FileOutputStream(temp)))) {
+            out.write(blobHeader(blob.size()));
+            blob.writeContent(out);
+        } catch (IOException excp) {
+            throw error("Could not write blob %s: %s", blob.id(),
+                    excp.getMessage());
+        }
+        install(FILES, blob.id(), temp);
+    }
+
+    /** Store the contents of BLOB as for writeBlob(BLOB) and, if they were
+     *  not stored already, rewrite them as a delta against PREVIOUS, the
+     *  blob of the same file in the commit being added to, or null if it
+     *  has none, where deltify() allows. Only the write that first stores a
+     *  blob deltifies it, since no other object can depend on it yet. */
+    static void writeBlob(Blob blob, ObjectId previous) {
+        if (contains(FILES, blob.id())) {
+            return;
+        }
+        writeBlob(blob);
+        if (previous != null) {
+            deltify(blob.id(), previous);
+        }
+    }
+
+    /** Return the codec in which to store BLOB: the configured one, or
+     *  NONE for a blob of at least RAW_THRESHOLD bytes whose first
+     *  SAMPLE_SIZE bytes do not compress. */
+    private static Codec codecFor(Blob blob) {
+        if (_codec == Codec.NONE || blob.size() < RAW_THRESHOLD) {
+            return _codec;
+        }
+        byte[] sample;
+        try (InputStream in = blob.openContent()) {
+            sample = in.readNBytes(SAMPLE_SIZE);
+        } catch (IOException excp) {
+            throw error("Could not read %s: %s", blob.name(),
+                    excp.getMessage());
+        }
+        return Codec.pays(sample) ? _codec : Codec.NONE;
+    }
+
+    /** Copy the contents of the blob with hash ID to the file DEST,
+     *  replacing it, straight from the file that stores it, and return
+     *  true; or return false, writing nothing, unless the blob is stored
+     *  whole, uncompressed, and already in its final place. */
+    static boolean transferBlob(ObjectId id, File dest) {
+        PackFile.Span span = packFile().span(id);
+        if (span == null && _writer != null && _writer.contains(FILES, id)) {
+            return false;
+        }
+        if (span == null) {
+            span = new PackFile.Span(looseFile(FILES, id));
+        }
+        try (FileChannel in = FileChannel.open(span.file.toPath())) {
+            ByteBuffer head = ByteBuffer.allocate(
+                    (int) Math.min(span.length, MAX_HEADER));
+            while (head.hasRemaining()
+                   && in.read(head, span.offset + head.position()) > 0) {
+                continue;
+            }
+            byte[] prefix = Arrays.copyOf(head.array(), head.position());
+            int end = indexOf(prefix, (byte) 0);
+            if (end < 0 || !new String(prefix, 0, end,
+                    StandardCharsets.UTF_8).equals("blob "
+                        + (span.length - end - 1))) {
+                return false;
+            }
+            long from = span.offset + end + 1, size = span.length - end - 1;
+            try (FileChannel out = FileChannel.open(dest.toPath(),
+                    StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                    StandardOpenOption.TRUNCATE_EXISTING)) {
+                for (long done = 0; done < size; ) {
+                    done += in.transferTo(from + done, size - done, out);
+                }
+            }
+            return true;
+        } catch (NoSuchFileException excp) {
+            return false;
+        } catch (IOException excp) {
+            throw error("Could not write %s: %s", dest, excp.getMessage());
+        }
+    }
+
+    /** Return the index of the first B in DATA, or -1 if none. */
+    private static int indexOf(byte[] data, byte b) {
+        for (int i = 0; i < data.length; i += 1) {
+            if (data[i] == b) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    /** Store CONTENT whole as the blob with hash ID, replacing any copy
+     *  already stored loose. */
+    static void writeBlob(ObjectId id, byte[] content) {
+        writeLoose(FILES, id, _codec, blobHeader(content.length), content);
+    }
+
+    /** Return a stream over the contents of the blob with hash ID. Whole
+     *  blobs are streamed from the store; deltas are rebuilt in memory. */
+    static InputStream openBlob(ObjectId id) throws IOException {
+        InputStream in = open(FILES, id);
+        Header header = readHeader(in, id);
+        if (header.kind.equals("blob")) {
+            return in;
+        }
+        ByteArrayOutputStream delta = new ByteArrayOutputStream();
+        try (in) {
+            Blob.copy(in, delta);
+        }
+        return new ByteArrayInputStream(Delta.apply(
+                blobContents(header.base), delta.toByteArray(), header.size));
+    }
+
+    /** Return the header stored before a blob of SIZE bytes. */
+    static byte[] blobHeader(long size) {
+        return ("blob " + size + "\0").getBytes(StandardCharsets.UTF_8);
+    }
+
+    /** Return the header stored before a delta of depth DEPTH against
+     *  BASE that rebuilds SIZE bytes. */
+    static byte[] deltaHeader(long size, int depth, ObjectId base) {
+        return ("delta " + size + " " + depth + " " + base + "\0")
+                .getBytes(StandardCharsets.UTF_8);
+    }
+
+    /** Return the full contents of the blob with hash ID, reusing a
+     *  recently read copy where possible. */
+    static byte[] blobContents(ObjectId id) {
+        byte[] cached = BLOB_CACHE.get(id);
+        if (cached != null) {
+            return cached;
+        }
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        try (InputStream in = openBlob(id)) {
+            Blob.copy(in, out);
+        } catch (IOException excp) {
+            throw error("Could not read blob %s: %s", id, excp.getMessage());
+        }
+        byte[] result = out.toByteArray();
+        BLOB_CACHE.put(id, result, result.length);
+        return result;
+    }
+
+    /** Rewrite the loose blob ID as a delta against BASEID, a previous
+     *  version of the same file, if that saves space and keeps the delta
+     *  chain within MAX_DELTA_DEPTH. A base whose own chain passes through
+     *  ID is refused, since the two could then never be rebuilt. */
+    private static void deltify(ObjectId id, ObjectId baseId) {
+        if (id.equals(baseId) || !isLoose(FILES, id)
+                || !contains(FILES, baseId) || chainContains(baseId, id)) {
+            return;
+        }
+        Header header = header(id);
+        Header base = header(baseId);
+        if (!header.kind.equals("blob") || header.size > DELTA_LIMIT
+                || base.size > DELTA_LIMIT || base.depth >= MAX_DELTA_DEPTH) {
+            return;
+        }
+        byte[] delta = Delta.compute(blobContents(baseId), blobContents(id));
+        if (delta.length < header.size / 2) {
+            writeLoose(FILES, id, _codec, deltaHeader(header.size,
+                    base.depth + 1, baseId), delta);
+        }
+    }
+
+    /** Rechoose the delta bases of all loose blobs reachable from HEADS.
+     *  Versions of each file are visited newest first; the newest is
+     *  stored whole and each older one as the smallest delta against any
+     *  of the DELTA_WINDOW versions before it whose chain is not already
+     *  MAX_DELTA_DEPTH long and does not pass through the older one, as it
+     *  may where a packed blob is stored as a delta or a blob is a version
+     *  of several files. Packed blobs are left unchanged. */
+    static void repack(Collection<Commit> heads) {
+        LinkedHashMap<String, LinkedHashSet<ObjectId>> versions =
+                new LinkedHashMap<>();
+        HashSet<ObjectId> seen = new HashSet<>();
+        ArrayDeque<Commit> queue = new ArrayDeque<>(heads);
+        while (!queue.isEmpty()) {
+            Commit commit = queue.poll();
+            if (!seen.add(commit.id())) {
+                continue;
+            }
+            for (Manifest.Entry entry : commit.manifest().entries()) {
+                if (entry.size() <= DELTA_LIMIT) {
+                    versions.computeIfAbsent(entry.name(),
+                            k -> new LinkedHashSet<>()).add(entry.id());
+                }
+            }
+            for (Commit parent : commit.parents()) {
+                if (parent != null) {
+                    queue.add(parent);
+                }
+            }
+        }
+        for (LinkedHashSet<ObjectId> ids : versions.values()) {
+            repackVersions(new ArrayList<>(ids));
+        }
+    }
+
+    /** Choose delta bases for IDS, the versions of one file from newest
+     *  to oldest, and rewrite those that are loose. */
+    private static void repackVersions(List<ObjectId> ids) {
+        ArrayList<byte[]> contents = new ArrayList<>();
+        for (ObjectId id : ids) {
+            contents.add(blobContents(id));
+        }
+        int[] depths = new int[ids.size()];
+        for (int i = 0; i < ids.size(); i += 1) {
+            byte[] target = contents.get(i);
+            byte[] best = null;
+            int bestBase = -1;
+            for (int j = Math.max(0, i - DELTA_WINDOW); j < i; j += 1) {
+                if (depths[j] >= MAX_DELTA_DEPTH
+                    || chainContains(ids.get(j), ids.get(i))) {
+                    continue;
+                }
+                byte[] delta = Delta.compute(contents.get(j), target);
+                if (best == null || delta.length < best.length) {
+                    best = delta;
+                    bestBase = j;
+                }
+            }
+            ObjectId id = ids.get(i);
+            if (!isLoose(FILES, id)) {
+                depths[i] = header(id).depth;
+            } else if (best != null && best.length < target.length / 2) {
+                depths[i] = depths[bestBase] + 1;
+                writeLoose(FILES, id, Codec.DENSE, deltaHeader(target.length,
+                        depths[i], ids.get(bestBase)), best);
+            } else if (header(id).kind.equals("delta")) {
+                writeLoose(FILES, id, Codec.DENSE, blobHeader(target.length),
+                        target);
+            }
+        }
+    }
+
+    /** Return whether the delta chain of the stored blob BASEID, from
+     *  BASEID down to the blob stored whole, includes ID. A chain that
+     *  already loops is taken to include everything. */
+    private static boolean chainContains(ObjectId baseId, ObjectId id) {
+        HashSet<ObjectId> seen = new HashSet<>();
+        for (ObjectId at = baseId; at != null; at = header(at).base) {
+            if (at.equals(id) || !seen.add(at)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /** Return the hash of the blob that the stored blob ID is a delta
+     *  against, or null if it is stored whole. */
+    static ObjectId deltaBase(ObjectId id) {
+        return header(id).base;
+    }
+
+    /** Return the hash of the blob that blob ID, stored at STORED, is a
+     *  delta against, or null if it is whole. STORED may be in another
+     *  repository; only its header is read. */
+    static ObjectId deltaBase(ObjectId id, PackFile.Span stored) {
+        try (InputStream in = Codec.decode(stored.open())) {
+            return readHeader(in, id).base;
+        } catch (IOException excp) {
+            throw error("Could not read blob %s: %s", id, excp.getMessage());
+        }
+    }
+
+    /** Return the header of the stored blob ID. */
+    private static Header header(ObjectId id) {
+        try (InputStream in = open(FILES, id)) {
+            return readHeader(in, id);
+        } catch (IOException excp) {
+            throw error("Could not read blob %s: %s", id, excp.getMessage());
+        }
+    }
+
+    /** Return the header of blob ID read from IN, leaving IN positioned
+     *  just past it. */
+    private static Header readHeader(InputStream in, ObjectId id)
+        throws IOException {
+        StringBuilder text = new StringBuilder();
+        for (int c = in.read(); c > 0; c = in.read()) {
+            text.append((char) c);
+        }
+        String[] fields = text.toString().split(" ");
+        Header header = new Header();
+        header.kind = fields[0];
+        if (header.kind.equals("blob") && fields.length == 2) {
+            header.size = Long.parseLong(fields[1]);
+        } else if (header.kind.equals("delta") && fields.length == 4) {
+            header.size = Long.parseLong(fields[1]);
+            header.depth = Integer.parseInt(fields[2]);
+            header.base = ObjectId.of(fields[3]);
+        } else {
+            in.close();
+            throw error("Object %s is not a blob.", id);
+        }
+        return header;
+    }
+
+    /** The header of a stored blob. */
+    private static class Header {
+        /** "blob" for whole blobs, "delta" for deltas. */
+        private String kind;
+        /** Size of the blob's contents. */
+        private long size;
+        /** Number of deltas applied to rebuild the blob. */
+        private int depth;
+        /** Hash of the delta base. Null for whole blobs. */
+        private ObjectId base;
+    }
+
+    /** Replace the loose object ID in DIR with the concatenation of
+     *  PARTS encoded with CODEC, renaming the new copy into place. */
+    private static void writeLoose(File dir, ObjectId id, Codec codec,
+                                   byte[]... parts) {
+        if (_writer != null) {
+            _writer.submit(dir, id, codec, parts);
+            return;
+        }
+        File temp = tempFile(dir, id);
+        try (OutputStream out = codec.encode(
+                new BufferedOutputStream(new FileOutputStream(temp)))) {
+            for (byte[] part : parts) {
+                out.write(part);
+            }
+        } catch (IOException excp) {
+            throw error("Could not write object %s: %s", id,
+                    excp.getMessage());
+        }
+        install(dir, id, temp);
+    }
+
+    /** Make TEMP, a complete copy of the loose object ID in DIR, the
+     *  stored copy. Written one at a time, TEMP is forced to disk before
+     *  it is renamed into place, and its directory after, so that an
+     *  object is never seen under its name incomplete; written behind,
+     *  all of this waits for the next sync(). */
+    private static void install(File dir, ObjectId id, File temp) {
+        if (_writer != null) {
+            _writer.install(dir, id, temp);
+            return;
+        }
+        File dest = looseFile(dir, id);
+        ObjectWriter.force(temp);
+        ObjectWriter.move(temp, dest, id);
+        ObjectWriter.force(dest.getParentFile());
+    }
+
+    /** Return whether the loose object ID in DIR is stored loose, or
+     *  waiting to be. */
+    private static boolean isLoose(File dir, ObjectId id) {
+        return looseFile(dir, id).exists()
+            || _writer != null && _writer.contains(dir, id);
+    }
+
+    /** Return a new, empty temporary file in DIR for writing object ID.
+     *  Each caller gets its own, so that several threads may write the
+     *  same object at once. */
+    static File tempFile(File dir, ObjectId id) {
+        File shard = looseFile(dir, id).getParentFile();
+        shard.mkdirs();
+        try {
+            return Files.createTempFile(shard.toPath(), id.toString(), ".tmp")
+                    .toFile();
+        } catch (IOException excp) {
+            throw error("Could not write object %s: %s", id,
+                    excp.getMessage());
+        }
+    }
+
+    /** Return a new, empty temporary file beside FILE for writing its next
+     *  contents, to be renamed over it. Each caller gets its own, so that
+     *  processes writing FILE at once never write into each other's. */
+    static File tempFile(File file) {
+        try {
+            return Files.createTempFile(file.getAbsoluteFile().getParentFile()
+                    .toPath(), file.getName(), ".tmp").toFile();
+        } catch (IOException excp) {
+            throw error("Could not write %s: %s", file, excp.getMessage());
+        }
+    }
+
+    /** Return the file holding the loose object ID in DIR: the last
+     *  UID_LENGTH - 2 hex digits of ID within the shard named by its
+     *  first two. */
+    static File looseFile(File dir, ObjectId id) {
+        String hex = id.toString();
+        return join(dir, hex.substring(0, 2), hex.substring(2));
+    }
+
+    /** Return the ids of every loose object in DIR, in order. */
+    static List<ObjectId> looseIds(File dir) {
+        return looseIds(dir, "");
+    }
+
+    /** Return the ids of the loose objects in DIR whose hex forms start
+     *  with PREFIX, in order. Once PREFIX names a shard, only that shard
+     *  is listed. */
+    static List<ObjectId> looseIds(File dir, String prefix) {
+        String lower = prefix.toLowerCase();
+        ArrayList<ObjectId> result = new ArrayList<>();
+        for (int shard = 0; shard < SHARDS; shard += 1) {
+            String name = String.format("%02x", shard);
+            if (lower.length() >= 2 ? !lower.startsWith(name)
+                    : !name.startsWith(lower)) {
+                continue;
+            }
+            List<String> names = plainFilenamesIn(join(dir, name));
+            if (names == null) {
+                continue;
+            }
+            for (String rest : names) {
+                String hex = name + rest;
+                if (ObjectId.isId(hex) && hex.startsWith(lower)) {
+                    result.add(ObjectId.of(hex));
+                }
+            }
+        }
+        return result;
+    }
+
+    /** Return the ids of every object in DIR or in the pack whose hex
+     *  form starts with PREFIX, in order and without duplicates. */
+    static List<ObjectId> matching(File dir, String prefix) {
+        TreeSet<ObjectId> result = new TreeSet<>(looseIds(dir, prefix));
+        result.addAll(packFile().matching(prefix));
+        return new ArrayList<>(result);
+    }
+
+    /** Move every loose object in COMMITS and FILES that is still stored
+     *  directly in its directory, as before objects were sharded, into
+     *  its shard. */
+    static void shardLooseObjects() {
+        for (File dir : new File[] {COMMITS, FILES}) {
+            List<String> names = plainFilenamesIn(dir);
+            if (names == null) {
+                continue;
+            }
+            for (String name : names) {
+                if (!ObjectId.isId(name)) {
+                    continue;
+                }
+                File dest = looseFile(dir, ObjectId.of(name));
+                dest.getParentFile().mkdirs();
+                try {
+                    Files.move(join(dir, name).toPath(), dest.toPath(),
+                            StandardCopyOption.ATOMIC_MOVE,
+                            StandardCopyOption.REPLACE_EXISTING);
+                } catch (IOException excp) {
+                    throw error("Could not move object %s: %s", name,
+                            excp.getMessage());
+                }
+            }
+        }
+    }
+
+    /** Return the file holding the staged version of the file NAME. Each
+     *  name has one such file, so staging a file again replaces it. */
+    static File stagedFile(String name) {
+        return join(STAGING, sha1(name));
+    }
+
+    /** Return whether an object with hash ID is stored, either loose
+     *  in DIR or in the pack. */
+    static boolean contains(File dir, ObjectId id) {
+        return packFile().contains(id) || isLoose(dir, id);
+    }
+
+    /** Return the decoded bytes of the object with hash ID, reading
+     *  it from the pack if possible and otherwise from DIR. */
+    static byte[] readBytes(File dir, ObjectId id) {
+        return Codec.decode(readEncoded(dir, id));
+    }
+
+    /** Return the bytes of the object with hash ID exactly as stored,
+     *  from the pack if possible and otherwise from DIR. */
+    static byte[] readEncoded(File dir, ObjectId id) {
+        byte[] packed = packFile().read(id);
+        if (packed != null) {
+            return packed;
+        }
+        byte[] pending = _writer == null ? null : _writer.read(dir, id);
+        if (pending != null) {
+            return pending;
+        }
+        try {
+            return Files.readAllBytes(looseFile(dir, id).toPath());
+        } catch (IOException excp) {
+            packed = reopenPack().read(id);
+        }
+        if (packed == null) {
+            throw error("No object with id %s.", id);
+        }
+        return packed;
+    }
+
+    /** Return a stream over the decoded bytes of the object with hash ID,
+     *  from the pack if possible and otherwise from DIR. */
+    static InputStream open(File dir, ObjectId id) throws IOException {
+        InputStream packed = packFile().open(id);
+        if (packed != null) {
+            return Codec.decode(packed);
+        }
+        byte[] pending = _writer == null ? null : _writer.read(dir, id);
+        if (pending != null) {
+            return Codec.decode(new ByteArrayInputStream(pending));
+        }
+        try {
+            return Codec.decode(new FileInputStream(looseFile(dir, id)));
+        } catch (FileNotFoundException excp) {
+            packed = reopenPack().open(id);
+        }
+        if (packed == null) {
+            throw error("No object with id %s.", id);
+        }
+        return Codec.decode(packed);
+    }
+
+    /** Move every loose commit and file into the pack, recompressing
+     *  those that are compressed with DENSE, and remove the loose copies
+     *  once the pack and its index have been written. Objects are streamed
+     *  into the pack, so that their size is unbounded. */
+    static void packLooseObjects() {
+        sync();
+        LinkedHashMap<ObjectId, PackFile.Span> objects =
+            new LinkedHashMap<>();
+        for (File dir : new File[] {COMMITS, FILES}) {
+            for (ObjectId id : looseIds(dir)) {
+                objects.put(id, new PackFile.Span(looseFile(dir, id)));
+            }
+        }
+        if (objects.isEmpty()) {
+            return;
+        }
+        packFile().append(objects, Codec.DENSE);
+        for (File dir : new File[] {COMMITS, FILES}) {
+            for (ObjectId id : objects.keySet()) {
+                looseFile(dir, id).delete();
+            }
+        }
+    }
+
+    /** Return the repository's pack, opening it on first use. Checked
+     *  once without locking, since every object lookup calls this. */
+    static PackFile packFile() {
+        PackFile result = _pack;
+        if (result == null) {
+            synchronized (ObjectStore.class) {
+                if (_pack == null) {
+                    _pack = new PackFile(PACK);
+                }
+                result = _pack;
+            }
+        }
+        return result;
+    }
+
+    /** Open the repository's pack afresh and return it. A loose object
+     *  missing after its pack lookup failed may have been packed since by
+     *  another process, under an index this process has not yet mapped.
+     *  Readers already using the old pack keep it. */
+    static PackFile reopenPack() {
+        PackFile result = new PackFile(PACK);
+        _pack = result;
+        return result;
+    }
+
+    /** The codec used for newly written objects. */
+    private static Codec _codec = Codec.FAST;
+
+    /** The repository's pack. Null until first use. Replaced rather than
+     *  remapped when reopened, so that it is never seen half-updated. */
+    private static volatile PackFile _pack;
+
+    /** The writer of objects written behind, or null if objects are
+     *  written one at a time. */
+    private static volatile ObjectWriter _writer;
+
+    /** The repository's commit graph. Null until first use. Guarded by
+     *  the class. */
+    private static CommitGraph _graph;
+
+    /** The repository's message index. Null until first use. Guarded by
+     *  the class. */
+    private static MessageIndex _messages;
+
+    /** Recently read commits. */
+    private static final ObjectCache<Commit> COMMIT_CACHE =
+        new ObjectCache<>("commit", COMMIT_CACHE_BYTES);
+
+    /** Recently read or rebuilt blob contents. */
+    private static final ObjectCache<byte[]> BLOB_CACHE =
+        new ObjectCache<>("blob", BLOB_CACHE_BYTES);
+
+}
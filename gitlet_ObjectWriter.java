@@ -0,0 +1,344 @@
+package gitlet;
+
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+
+import static gitlet.Utils.*;
+
+/** A write-behind writer of loose objects. Objects handed to submit() are
+ *  queued and written to temporary files by a background thread, in
+ *  batches of up to BATCH; the queue holds at most QUEUE_SIZE objects,
+ *  so a caller that outruns the disk waits rather than holding every
+ *  object in memory. Objects already written to a temporary file by the
+ *  caller are handed over with install().
+ *
+ *  Nothing is made durable or visible under its final name until sync(),
+ *  which forces every written file to disk at once, renames each into
+ *  place, forces each directory that gained a file once, and only then
+ *  runs the actions registered with afterSync(), such as updating the
+ *  commit graph or a branch. A crash before sync() thus leaves at most
+ *  some temporary files, and never an object that is named but
+ *  incomplete, or a reference to an object that was lost.
+ *
+ *  Until then, contains() and read() answer for the queued objects, so
+ *  that a command reads back what it wrote. submit(), install(),
+ *  contains() and read() may be called from several threads at once;
+ *  sync() may not be called while objects are being submitted. */
+class ObjectWriter {
+
+    /** Largest number of objects waiting to be written. */
+    static final int QUEUE_SIZE = Integer.getInteger("gitlet.writer.queue",
+            1024);
+
+    /** Largest number of objects the writer thread takes at once. */
+    static final int BATCH = 64;
+
+    /** A writer with its own writer thread. */
+    ObjectWriter() {
+        _queue = new ArrayBlockingQueue<>(QUEUE_SIZE);
+        _pending = new ConcurrentHashMap<>();
+        _written = new ArrayList<>();
+        _actions = new ArrayList<>();
+        Thread thread = new Thread(this::drain, "gitlet-writer");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    /** Queue the loose object ID in DIR, replacing any earlier version,
+     *  to be written as the concatenation of PARTS encoded with CODEC.
+     *  Waits while the queue is full. */
+    void submit(File dir, ObjectId id, Codec codec, byte[]... parts) {
+        Pending object = new Pending(dir, id);
+        object.codec = codec;
+        object.parts = parts;
+        synchronized (this) {
+            _unwritten += 1;
+        }
+        object.replaced = _pending.put(object.dest, object);
+        try {
+            _queue.put(object);
+        } catch (InterruptedException excp) {
+            Thread.currentThread().interrupt();
+            throw error("Interrupted writing object %s.", id);
+        }
+    }
+
+    /** Take over TEMP, a complete temporary file holding the loose object
+     *  ID in DIR, to be renamed into place at the next sync(). */
+    void install(File dir, ObjectId id, File temp) {
+        Pending object = new Pending(dir, id);
+        object.temp = temp;
+        _pending.put(object.dest, object);
+        synchronized (this) {
+            _written.add(object);
+        }
+    }
+
+    /** Return whether the loose object ID in DIR is waiting to be synced. */
+    boolean contains(File dir, ObjectId id) {
+        return _pending.containsKey(ObjectStore.looseFile(dir, id));
+    }
+
+    /** Return the stored form of the loose object ID in DIR if it is
+     *  waiting to be synced, and otherwise null. An object that sync()
+     *  renames into place meanwhile is read from its final name. */
+    byte[] read(File dir, ObjectId id) {
+        Pending object = _pending.get(ObjectStore.looseFile(dir, id));
+        if (object == null) {
+            return null;
+        }
+        byte[][] parts = object.parts;
+        if (parts != null) {
+            return object.codec.encode(concat(parts));
+        }
+        try {
+            try {
+                return Files.readAllBytes(object.temp.toPath());
+            } catch (NoSuchFileException excp) {
+                return Files.readAllBytes(object.dest.toPath());
+            }
+        } catch (IOException excp) {
+            throw error("Could not read object %s: %s", id,
+                    excp.getMessage());
+        }
+    }
+
+    /** Run ACTION once every object submitted or installed so far has
+     *  been synced, in the order registered. */
+    synchronized void afterSync(Runnable action) {
+        _actions.add(action);
+    }
+
+    /** Wait for every queued object to be written, then make them all
+     *  durable under their final names, and run the actions registered
+     *  since the last sync. If the writer thread failed to write an
+     *  object since the last sync, throw that failure instead, dropping
+     *  those actions, which may refer to the lost object; the objects
+     *  that were written are synced by the next call. */
+    void sync() {
+        ArrayList<Pending> written;
+        ArrayList<Runnable> actions;
+        synchronized (this) {
+            while (_unwritten > 0) {
+                try {
+                    wait();
+                } catch (InterruptedException excp) {
+                    Thread.currentThread().interrupt();
+                    throw error("Interrupted syncing objects.");
+                }
+            }
+            if (_failure != null) {
+                RuntimeException failure = _failure;
+                _failure = null;
+                _actions.clear();
+                throw failure;
+            }
+            written = new ArrayList<>(_written);
+            actions = new ArrayList<>(_actions);
+            _written.clear();
+            _actions.clear();
+        }
+        ArrayList<Pending> current = new ArrayList<>();
+        for (Pending object : written) {
+            if (_pending.get(object.dest) == object) {
+                current.add(object);
+            } else {
+                object.temp.delete();
+            }
+        }
+        Parallel.run(current.size(), i -> force(current.get(i).temp));
+        LinkedHashSet<File> dirs = new LinkedHashSet<>();
+        for (Pending object : current) {
+            move(object.temp, object.dest, object.id);
+            _pending.remove(object.dest, object);
+            dirs.add(object.dest.getParentFile());
+        }
+        for (File dir : dirs) {
+            force(dir);
+        }
+        for (Runnable action : actions) {
+            action.run();
+        }
+    }
+
+    /** Force the contents of FILE, or the entries of the directory FILE,
+     *  to disk. Platforms that cannot force a directory are not forced. */
+    static void force(File file) {
+        boolean dir = file.isDirectory();
+        try (FileChannel channel = FileChannel.open(file.toPath(),
+                dir ? StandardOpenOption.READ : StandardOpenOption.WRITE)) {
+            channel.force(true);
+        } catch (IOException excp) {
+            if (!dir) {
+                throw error("Could not sync %s: %s", file,
+                        excp.getMessage());
+            }
+        }
+    }
+
+    /** Rename TEMP, holding object ID, to DEST. */
+    static void move(File temp, File dest, ObjectId id) {
+        try {
+            Files.move(temp.toPath(), dest.toPath(),
+                    StandardCopyOption.ATOMIC_MOVE,
+                    StandardCopyOption.REPLACE_EXISTING);
+        } catch (IOException excp) {
+            throw error("Could not write object %s: %s", id,
+                    excp.getMessage());
+        }
+    }
+
+    /** Write queued objects to temporary files for as long as the program
+     *  runs, a batch at a time. An object that cannot be written is
+     *  forgotten, and the latest version it replaced that did not fail
+     *  takes its place again, so that a delta failing to replace a whole
+     *  blob does not lose the blob. The failure is kept for the next
+     *  sync() to report. */
+    private void drain() {
+        List<Pending> batch = new ArrayList<>(BATCH);
+        while (true) {
+            try {
+                batch.add(_queue.take());
+            } catch (InterruptedException excp) {
+                return;
+            }
+            _queue.drainTo(batch, BATCH - 1);
+            for (Pending object : batch) {
+                RuntimeException failure = null;
+                try {
+                    write(object);
+                } catch (RuntimeException excp) {
+                    failure = excp;
+                }
+                synchronized (this) {
+                    if (failure == null) {
+                        object.replaced = null;
+                        _written.add(object);
+                    } else {
+                        object.failed = true;
+                        restore(object);
+                        if (_failure == null) {
+                            _failure = failure;
+                        }
+                    }
+                    _unwritten -= 1;
+                    notifyAll();
+                }
+            }
+            batch.clear();
+        }
+    }
+
+    /** Put back in place of OBJECT, which failed to be written, the latest
+     *  version it replaced that has not failed, if it is still the latest
+     *  version itself. */
+    private void restore(Pending object) {
+        Pending previous = object.replaced;
+        while (previous != null && previous.failed) {
+            previous = previous.replaced;
+        }
+        if (previous == null) {
+            _pending.remove(object.dest, object);
+        } else {
+            _pending.replace(object.dest, object, previous);
+        }
+    }
+
+    /** Write OBJECT to a new temporary file beside its destination,
+     *  deleting the file if that fails. */
+    private static void write(Pending object) {
+        File temp = ObjectStore.tempFile(object.dir, object.id);
+        try (OutputStream out = object.codec.encode(
+                new BufferedOutputStream(new FileOutputStream(temp)))) {
+            for (byte[] part : object.parts) {
+                out.write(part);
+            }
+        } catch (IOException excp) {
+            temp.delete();
+            throw error("Could not write object %s: %s", object.id,
+                    excp.getMessage());
+        } catch (RuntimeException excp) {
+            temp.delete();
+            throw excp;
+        }
+        object.temp = temp;
+        object.parts = null;
+    }
+
+    /** Return the concatenation of PARTS. */
+    private static byte[] concat(byte[][] parts) {
+        int length = 0;
+        for (byte[] part : parts) {
+            length += part.length;
+        }
+        byte[] result = new byte[length];
+        int at = 0;
+        for (byte[] part : parts) {
+            System.arraycopy(part, 0, result, at, part.length);
+            at += part.length;
+        }
+        return result;
+    }
+
+    /** One object waiting to be synced. */
+    private static class Pending {
+        /** The loose object ID, to be stored in DIR. */
+        Pending(File dir, ObjectId id) {
+            this.dir = dir;
+            this.dest = ObjectStore.looseFile(dir, id);
+            this.id = id;
+        }
+
+        /** Directory of loose objects holding the object. */
+        private final File dir;
+        /** Final location. */
+        private final File dest;
+        /** Object hash. */
+        private final ObjectId id;
+        /** Codec to write with, for a submitted object. */
+        private Codec codec;
+        /** Contents to encode, until written. */
+        private volatile byte[][] parts;
+        /** Temporary file holding the object, once written. */
+        private volatile File temp;
+        /** The version of the object this one replaced, until this one
+         *  is written, in case it fails. */
+        private Pending replaced;
+        /** Whether writing this version failed. */
+        private boolean failed;
+    }
+
+    /** Objects waiting to be written. */
+    private final ArrayBlockingQueue<Pending> _queue;
+
+    /** The latest version of every object not yet synced, by
+     *  destination. */
+    private final ConcurrentHashMap<File, Pending> _pending;
+
+    /** Objects written to temporary files since the last sync. */
+    private final ArrayList<Pending> _written;
+
+    /** Actions to run at the next sync. */
+    private final ArrayList<Runnable> _actions;
+
+    /** Number of objects submitted but not yet written. */
+    private int _unwritten;
+
+    /** The first failure of the writer thread since the last sync, or
+     *  null. */
+    private RuntimeException _failure;
+
+}
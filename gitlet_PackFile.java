@@ -0,0 +1,550 @@
+package gitlet;
+
+import java.io.File;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.FilterOutputStream;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+
+import static gitlet.Utils.*;
+
+/** An append-only file holding many objects back to back, together with
+ *  a sorted index of (hash, offset, length) records. The index is
+ *  memory-mapped so that a lookup is a binary search over the mapped
+ *  buffer, and an object is read back with a single positioned read
+ *  from the pack.
+ *
+ *  Pack layout: PACK_MAGIC, then raw object bytes.
+ *  Index layout: INDEX_MAGIC, record count, pack generation, a fan-out
+ *  table of FANOUT counts, then RECORD_SIZE-byte records of a 20-byte
+ *  binary hash, an 8-byte offset and an 8-byte length, sorted by hash, so
+ *  that neither a pack nor any object in it is limited in size.
+ *  Entry b of the fan-out table is the number of records whose first hash
+ *  byte is at most b, so the records starting with byte b lie between
+ *  entries b - 1 and b, and a search need only bisect those.
+ *
+ *  Appends extend the pack in place, which readers of the old index never
+ *  notice. A rewrite instead writes a new pack under the next generation
+ *  number and then renames in an index naming it, so that a reader still
+ *  using the old index goes on reading the old pack, which is only
+ *  deleted later.
+ *
+ *  Each mapped index is parsed once into an immutable Index, published
+ *  through a volatile field, so that the threads of a parallel add or
+ *  checkout never see an index half set up, and each lookup uses one
+ *  Index throughout.
+ *
+ *  Writers must hold the repository's exclusive RepoLock, and remap the
+ *  index before writing, so that an append or rewrite always starts from
+ *  the index on disk and never from one this reader mapped before another
+ *  process appended to or rewrote the pack.
+ *
+ *  Indexes written with 4-byte lengths, under NARROW_INDEX_MAGIC, before
+ *  generations, under FANOUT_INDEX_MAGIC, and before the fan-out table,
+ *  under LEGACY_INDEX_MAGIC, are still read, the last two as generation
+ *  0, until the next append or rewrite replaces them. */
+class PackFile {
+
+    /** Leading bytes of every pack file. */
+    static final int PACK_MAGIC = 0x4750434B;
+
+    /** Leading bytes of every index file. */
+    static final int INDEX_MAGIC = 0x47494434;
+
+    /** Leading bytes of an index file with 4-byte lengths. */
+    static final int NARROW_INDEX_MAGIC = 0x47494433;
+
+    /** Leading bytes of an index file without a generation. */
+    static final int FANOUT_INDEX_MAGIC = 0x47494432;
+
+    /** Leading bytes of an index file without a fan-out table. */
+    static final int LEGACY_INDEX_MAGIC = 0x47494458;
+
+    /** Number of entries in the fan-out table. */
+    static final int FANOUT = 256;
+
+    /** Length of a binary SHA-1 hash. */
+    static final int HASH_SIZE = ObjectId.SIZE;
+
+    /** Length of one index record. */
+    static final int RECORD_SIZE = HASH_SIZE + 8 + 8;
+
+    /** Length of one index record with a 4-byte length. */
+    static final int NARROW_RECORD_SIZE = HASH_SIZE + 8 + 4;
+
+    /** Length of the index header: magic, record count, generation and
+     *  fan-out table. */
+    static final int HEADER_SIZE = 12 + 4 * FANOUT;
+
+    /** A pack stored within DIR, indexed by objects.idx. */
+    PackFile(File dir) {
+        _dir = dir;
+        _index = join(dir, "objects.idx");
+    }
+
+    /** Return whether an object with hash ID is stored in this pack. */
+    boolean contains(ObjectId id) {
+        Index index = index();
+        return index != null && index.search(id.toBytes()) >= 0;
+    }
+
+    /** Return the number of objects stored in this pack. */
+    int size() {
+        Index index = index();
+        return index == null ? 0 : index.size;
+    }
+
+    /** Return the contents of the object with hash ID, or null if
+     *  it is not stored in this pack. */
+    byte[] read(ObjectId id) {
+        Span span = span(id);
+        if (span == null) {
+            return null;
+        }
+        if (span.length > Integer.MAX_VALUE - 8) {
+            throw error("Object %s is too large to read into memory.", id);
+        }
+
+        ByteBuffer result = ByteBuffer.allocate((int) span.length);
+        try (FileChannel channel = FileChannel.open(span.file.toPath())) {
+            while (result.hasRemaining()) {
+                int n = channel.read(result, span.offset + result.position());
+                if (n < 0) {
+                    throw error("Truncated pack entry %s.", id);
+                }
+            }
+        } catch (IOException excp) {
+            throw error("Could not read pack: %s", excp.getMessage());
+        }
+        return result.array();
+    }
+
+    /** Return a stream over the object with hash ID, reading directly
+     *  from its position in the pack, or null if it is not stored in this
+     *  pack. */
+    InputStream open(ObjectId id) throws IOException {
+        Span span = span(id);
+        return span == null ? null : span.open();
+    }
+
+    /** Return where the object with hash ID is stored in this pack, or
+     *  null if it is not. */
+    Span span(ObjectId id) {
+        Index index = index();
+        int record = index == null ? -1 : index.search(id.toBytes());
+        if (record < 0) {
+            return null;
+        }
+        int at = index.recordAt(record) + HASH_SIZE;
+        return new Span(pack(generation(index)), index.buffer.getLong(at),
+                        index.length(at));
+    }
+
+    /** Append all OBJECTS, a mapping from hash to where the object is
+     *  stored, to the end of the pack and rewrite the index to cover them.
+     *  Each object is copied from its file to the pack through channels,
+     *  never whole in memory, and those that are compressed are
+     *  recompressed with RECODE on the way unless it is null. Objects
+     *  already in the pack are skipped. */
+    void append(Map<ObjectId, Span> objects, Codec recode) {
+        _mapped = null;
+        Index index = index();
+        ArrayList<byte[]> records = records(index);
+        _dir.mkdirs();
+        try (FileChannel pack = FileChannel.open(
+                pack(generation(index)).toPath(),
+                StandardOpenOption.CREATE, StandardOpenOption.WRITE)) {
+            if (pack.size() == 0) {
+                pack.write(ByteBuffer.allocate(4).putInt(0, PACK_MAGIC));
+            }
+            pack.position(pack.size());
+            for (Map.Entry<ObjectId, Span> object : objects.entrySet()) {
+                byte[] hash = object.getKey().toBytes();
+                if (index != null && index.search(hash) >= 0) {
+                    continue;
+                }
+                long offset = pack.position();
+                long length = copy(object.getValue(), pack, recode);
+                records.add(ByteBuffer.allocate(RECORD_SIZE).put(hash)
+                        .putLong(offset).putLong(length).array());
+            }
+            pack.force(true);
+        } catch (IOException excp) {
+            throw error("Could not write pack: %s", excp.getMessage());
+        }
+        writeIndex(records, generation(index));
+    }
+
+    /** Write the object stored at SPAN to OUT at its position, recompressed
+     *  with RECODE if that is not null and the object is compressed, and
+     *  return the number of bytes written. Uncompressed objects are left
+     *  as they are, as for Codec.recode(). */
+    private static long copy(Span span, FileChannel out, Codec recode)
+        throws IOException {
+        long start = out.position();
+        try (FileChannel in = FileChannel.open(span.file.toPath())) {
+            ByteBuffer first = ByteBuffer.allocate(1);
+            in.read(first, span.offset);
+            if (recode == null || span.length == 0
+                || (first.get(0) & 0xFF) != Codec.ZLIB_MAGIC) {
+                for (long done = 0; done < span.length; ) {
+                    long n = in.transferTo(span.offset + done,
+                            span.length - done, out);
+                    if (n <= 0) {
+                        throw new IOException("truncated object");
+                    }
+                    done += n;
+                }
+            } else {
+                in.position(span.offset);
+                try (InputStream decoded = Codec.decode(new Slice(
+                         Channels.newInputStream(in), span.length));
+                     OutputStream encoded = recode.encode(new Unclosed(
+                         Channels.newOutputStream(out)))) {
+                    Blob.copy(decoded, encoded);
+                }
+            }
+        }
+        return out.position() - start;
+    }
+
+    /** Replace the pack with one holding exactly OBJECTS, a mapping from
+     *  hash to where the object is stored, under the next generation. Each
+     *  object is copied as it is through channels, as for append(). The
+     *  old pack is left in place for readers still using it; see
+     *  stalePacks(). */
+    void rewrite(Map<ObjectId, Span> objects) {
+        _mapped = null;
+        int generation = generation(index()) + 1;
+        ArrayList<byte[]> records = new ArrayList<>();
+        _dir.mkdirs();
+        try (FileChannel pack = FileChannel.open(pack(generation).toPath(),
+                StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                StandardOpenOption.TRUNCATE_EXISTING)) {
+            pack.write(ByteBuffer.allocate(4).putInt(0, PACK_MAGIC));
+            for (Map.Entry<ObjectId, Span> object : objects.entrySet()) {
+                long offset = pack.position();
+                long length = copy(object.getValue(), pack, null);
+                records.add(ByteBuffer.allocate(RECORD_SIZE)
+                        .put(object.getKey().toBytes())
+                        .putLong(offset).putLong(length).array());
+            }
+            pack.force(true);
+        } catch (IOException excp) {
+            throw error("Could not write pack: %s", excp.getMessage());
+        }
+        writeIndex(records, generation);
+    }
+
+    /** Return the current pack file, which may not exist yet. */
+    File file() {
+        return pack(generation(index()));
+    }
+
+    /** Return every pack file in this pack's directory other than the
+     *  current one, such as those left behind by rewrite(). */
+    List<File> stalePacks() {
+        ArrayList<File> result = new ArrayList<>();
+        File current = pack(generation(index()));
+        List<String> names = plainFilenamesIn(_dir);
+        if (names != null) {
+            for (String name : names) {
+                if (name.startsWith("objects") && name.endsWith(".pack")
+                        && !name.equals(current.getName())) {
+                    result.add(join(_dir, name));
+                }
+            }
+        }
+        return result;
+    }
+
+    /** Return every record in INDEX, which may be null for none, as a
+     *  separate array, in the current record format. */
+    private static ArrayList<byte[]> records(Index index) {
+        ArrayList<byte[]> records = new ArrayList<>();
+        for (int i = 0; index != null && i < index.size; i += 1) {
+            byte[] hash = new byte[HASH_SIZE];
+            int at = index.recordAt(i);
+            index.buffer.get(at, hash);
+            records.add(ByteBuffer.allocate(RECORD_SIZE).put(hash)
+                    .putLong(index.buffer.getLong(at + HASH_SIZE))
+                    .putLong(index.length(at + HASH_SIZE)).array());
+        }
+        return records;
+    }
+
+    /** Sort RECORDS by hash and replace the index with them, as the index
+     *  of pack GENERATION. The new index is written beside the old one and
+     *  renamed into place, so concurrent readers see either the old or the
+     *  new index. */
+    private void writeIndex(ArrayList<byte[]> records, int generation) {
+        records.sort((a, b) -> Arrays.compareUnsigned(a, 0, HASH_SIZE,
+                b, 0, HASH_SIZE));
+        ByteBuffer out = ByteBuffer.allocate(HEADER_SIZE
+                + records.size() * RECORD_SIZE);
+        out.putInt(INDEX_MAGIC).putInt(records.size()).putInt(generation);
+        int count = 0;
+        for (int b = 0; b < FANOUT; b += 1) {
+            while (count < records.size()
+                   && (records.get(count)[0] & 0xFF) <= b) {
+                count += 1;
+            }
+            out.putInt(count);
+        }
+        for (byte[] record : records) {
+            out.put(record);
+        }
+        File temp = join(_dir, "objects.idx.tmp");
+        try {
+            Files.write(temp.toPath(), out.array());
+            Files.move(temp.toPath(), _index.toPath(),
+                    StandardCopyOption.ATOMIC_MOVE,
+                    StandardCopyOption.REPLACE_EXISTING);
+        } catch (IOException excp) {
+            throw error("Could not write pack index: %s", excp.getMessage());
+        }
+        _mapped = null;
+    }
+
+    /** Return the ids of every object in this pack whose hex form starts
+     *  with PREFIX, in order. */
+    List<ObjectId> matching(String prefix) {
+        ArrayList<ObjectId> result = new ArrayList<>();
+        String lower = prefix.toLowerCase();
+        StringBuilder least = new StringBuilder(lower);
+        while (least.length() < UID_LENGTH) {
+            least.append('0');
+        }
+        Index index = index();
+        if (index == null || !ObjectId.isId(least.toString())) {
+            return result;
+        }
+        int k = index.search(ObjectId.of(least.toString()).toBytes());
+        if (k < 0) {
+            k = -k - 1;
+        }
+        byte[] hash = new byte[HASH_SIZE];
+        for (; k < index.size; k += 1) {
+            index.buffer.get(index.recordAt(k), hash);
+            ObjectId id = ObjectId.of(hash);
+            if (!id.toString().startsWith(lower)) {
+                break;
+            }
+            result.add(id);
+        }
+        return result;
+    }
+
+    /** Return the mapped index, mapping it on first use, or null if this
+     *  pack has no index yet. */
+    private Index index() {
+        Index result = _mapped;
+        if (result == null && _index.exists()) {
+            try (FileChannel channel = FileChannel.open(_index.toPath())) {
+                result = new Index(channel.map(FileChannel.MapMode.READ_ONLY,
+                        0, channel.size()), _index);
+            } catch (IOException excp) {
+                throw error("Could not map pack index: %s",
+                        excp.getMessage());
+            }
+            _mapped = result;
+        }
+        return result;
+    }
+
+    /** Return the generation of the pack INDEX describes, 0 if INDEX is
+     *  null. */
+    private static int generation(Index index) {
+        return index == null ? 0 : index.generation;
+    }
+
+    /** Return the pack file of GENERATION. */
+    private File pack(int generation) {
+        return join(_dir, generation == 0 ? "objects.pack"
+                : "objects-" + generation + ".pack");
+    }
+
+    /** One mapped index and the layout read from its header. */
+    private static final class Index {
+        /** The index mapped as BUFFER from FILE. */
+        Index(ByteBuffer buffer, File file) {
+            this.buffer = buffer;
+            int magic = buffer.getInt(0);
+            record = magic == INDEX_MAGIC ? RECORD_SIZE : NARROW_RECORD_SIZE;
+            if (magic == INDEX_MAGIC || magic == NARROW_INDEX_MAGIC) {
+                generation = buffer.getInt(8);
+                fanout = 12;
+            } else if (magic == FANOUT_INDEX_MAGIC) {
+                generation = 0;
+                fanout = 8;
+            } else if (magic == LEGACY_INDEX_MAGIC) {
+                generation = 0;
+                fanout = -1;
+            } else {
+                throw error("Corrupt pack index %s.", file);
+            }
+            header = fanout < 0 ? 8 : fanout + 4 * FANOUT;
+            size = buffer.getInt(4);
+        }
+
+        /** Return the offset of record number K. */
+        int recordAt(int k) {
+            return header + k * record;
+        }
+
+        /** Return the length stored at AT, just past a record's hash and
+         *  offset. */
+        long length(int at) {
+            return record == RECORD_SIZE ? buffer.getLong(at + 8)
+                : buffer.getInt(at + 8);
+        }
+
+        /** Return the record number of HASH if present, and otherwise
+         *  -(K + 1), where K is the number of the first record whose hash
+         *  is greater than HASH. With a fan-out table, only the records
+         *  sharing HASH's first byte are searched. */
+        int search(byte[] hash) {
+            byte[] probe = new byte[HASH_SIZE];
+            int lo = 0, hi = size - 1;
+            if (fanout >= 0) {
+                int b = hash[0] & 0xFF;
+                lo = b == 0 ? 0 : buffer.getInt(fanout + 4 * (b - 1));
+                hi = buffer.getInt(fanout + 4 * b) - 1;
+            }
+            while (lo <= hi) {
+                int mid = (lo + hi) >>> 1;
+                buffer.get(recordAt(mid), probe);
+                int cmp = Arrays.compareUnsigned(probe, hash);
+                if (cmp < 0) {
+                    lo = mid + 1;
+                } else if (cmp > 0) {
+                    hi = mid - 1;
+                } else {
+                    return mid;
+                }
+            }
+            return -lo - 1;
+        }
+
+        /** The mapped index. */
+        final ByteBuffer buffer;
+        /** Number of records. */
+        final int size;
+        /** Generation of the pack the index describes. */
+        final int generation;
+        /** Offset of the fan-out table, or -1 if there is none. */
+        final int fanout;
+        /** Length of the header, which is shorter for older indexes. */
+        final int header;
+        /** Length of one record, which is shorter for older indexes. */
+        final int record;
+    }
+
+    /** The bytes of one stored object within a file. */
+    static class Span {
+        /** The LENGTH bytes at OFFSET in FILE. */
+        Span(File file, long offset, long length) {
+            this.file = file;
+            this.offset = offset;
+            this.length = length;
+        }
+
+        /** The whole of FILE, such as a loose object. */
+        Span(File file) {
+            this(file, 0, file.length());
+        }
+
+        /** Return a stream over these bytes, read straight from FILE. */
+        InputStream open() throws IOException {
+            FileChannel channel = FileChannel.open(file.toPath());
+            channel.position(offset);
+            return new Slice(Channels.newInputStream(channel), length);
+        }
+
+        /** File holding the object. */
+        final File file;
+        /** Position of the object in FILE. */
+        final long offset;
+        /** Length of the object. */
+        final long length;
+    }
+
+    /** A stream writing through to another, which closing flushes but
+     *  leaves open. */
+    private static class Unclosed extends FilterOutputStream {
+
+        /** A stream writing to OUT. */
+        Unclosed(OutputStream out) {
+            super(out);
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            out.write(b, off, len);
+        }
+
+        @Override
+        public void close() throws IOException {
+            flush();
+        }
+    }
+
+    /** A stream over the next LENGTH bytes of another stream. */
+    private static class Slice extends FilterInputStream {
+
+        /** The first LENGTH bytes of IN. */
+        Slice(InputStream in, long length) {
+            super(in);
+            _remaining = length;
+        }
+
+        @Override
+        public int read() throws IOException {
+            if (_remaining <= 0) {
+                return -1;
+            }
+            int c = super.read();
+            if (c >= 0) {
+                _remaining -= 1;
+            }
+            return c;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            if (_remaining <= 0) {
+                return -1;
+            }
+            int n = super.read(b, off, (int) Math.min(len, _remaining));
+            if (n > 0) {
+                _remaining -= n;
+            }
+            return n;
+        }
+
+        /** Number of bytes left in this slice. */
+        private long _remaining;
+    }
+
+    /** Directory holding the pack and its index. */
+    private final File _dir;
+
+    /** The sorted index over the pack. */
+    private final File _index;
+
+    /** The index, once mapped. Null until first use, and after a write
+     *  until next used. */
+    private volatile Index _mapped;
+
+}
@@ -0,0 +1,105 @@
+package gitlet;
+
+import java.io.File;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.function.IntConsumer;
+
+/** Runs the per-file work of add and checkout across a bounded pool of
+ *  worker threads. The files are split in halves recursively until each
+ *  piece is at most GRAIN files, and the pieces are spread over the pool
+ *  by work stealing. Results are stored by input position, so they come
+ *  out in the same order however the work was scheduled.
+ *
+ *  The number of workers defaults to the number of processors and can be
+ *  set with the system property gitlet.threads. */
+class Parallel {
+
+    /** Largest number of files handled by one task without splitting. */
+    static final int GRAIN = 4;
+
+    /** Number of worker threads. */
+    static final int THREADS = Integer.getInteger("gitlet.threads",
+            Runtime.getRuntime().availableProcessors());
+
+    /** Hash every file in FILES, using INDEX to skip those that are
+     *  unchanged, and store the contents of each in the object store, as a
+     *  delta against the version HEAD tracks where that pays. HEAD is the
+     *  manifest of the current commit, or null for none. Return the
+     *  resulting Blobs in the same order as FILES. INDEX is updated but
+     *  not saved. */
+    static List<Blob> add(List<File> files, Manifest head, StatIndex index) {
+        Blob[] result = new Blob[files.size()];
+        run(files.size(), i -> {
+            Blob blob = index.blob(files.get(i));
+            Manifest.Entry previous =
+                head == null ? null : head.get(blob.name());
+            ObjectStore.writeBlob(blob,
+                    previous == null ? null : previous.id());
+            result[i] = blob;
+        });
+        return Arrays.asList(result);
+    }
+
+    /** Write every file tracked by COMMIT into the directory DIR, recording
+     *  each in INDEX. INDEX is updated but not saved. */
+    static void checkout(Commit commit, File dir, StatIndex index) {
+        List<Manifest.Entry> entries = commit.manifest().entries();
+        run(entries.size(), i -> {
+            Manifest.Entry entry = entries.get(i);
+            index.checkout(new Blob(entry.name(), entry.id(), entry.size()),
+                    new File(dir, entry.name()));
+        });
+    }
+
+    /** Call WORK on every integer in [0, N) using the worker pool, and
+     *  return once all calls have finished. The first exception thrown
+     *  by any call is rethrown here. */
+    static void run(int n, IntConsumer work) {
+        if (n == 0) {
+            return;
+        }
+        pool().invoke(new Range(0, n, work));
+    }
+
+    /** Return the worker pool, creating it on first use. */
+    private static synchronized ForkJoinPool pool() {
+        if (_pool == null) {
+            _pool = new ForkJoinPool(Math.max(1, THREADS));
+        }
+        return _pool;
+    }
+
+    /** A task calling WORK on each integer in [FROM, TO). */
+    private static class Range extends RecursiveAction {
+        Range(int from, int to, IntConsumer work) {
+            _from = from;
+            _to = to;
+            _work = work;
+        }
+
+        @Override
+        protected void compute() {
+            if (_to - _from <= GRAIN) {
+                for (int i = _from; i < _to; i += 1) {
+                    _work.accept(i);
+                }
+            } else {
+                int mid = (_from + _to) >>> 1;
+                invokeAll(new Range(_from, mid, _work),
+                          new Range(mid, _to, _work));
+            }
+        }
+
+        /** Bounds of this range. */
+        private final int _from, _to;
+        /** Work done for each integer. */
+        private final IntConsumer _work;
+    }
+
+    /** The worker pool. Null until first use. */
+    private static ForkJoinPool _pool;
+
+}
@@ -0,0 +1,144 @@
+package gitlet;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.List;
+
+import static gitlet.Utils.*;
+
+/** The branches of a repository and its current branch. Each branch is
+ *  a file in .gitlet/branches holding the hex id of its head commit, and
+ *  .gitlet/HEAD holds the name of the current branch.
+ *
+ *  Every change writes the new contents to a temporary file, forces it
+ *  to disk, and renames it over the old file, so that a reader sees
+ *  either the old or the new value and never a partial one, even after a
+ *  crash. Changes must be made holding the repository's exclusive
+ *  RepoLock. A branch is moved only from the head its caller last read,
+ *  so that a change made since by another command is reported rather
+ *  than lost, and only once the objects the new head needs are durable. */
+class Refs {
+
+    /** The branches of the repository whose .gitlet directory is DIR. */
+    Refs(File dir) {
+        _dir = dir;
+        _branches = join(dir, "branches");
+        _head = join(dir, "HEAD");
+    }
+
+    /** The branches of the current repository. */
+    Refs() {
+        this(ObjectStore.REPO);
+    }
+
+    /** Return the head commit of branch NAME, or null if there is no such
+     *  branch. */
+    ObjectId branch(String name) {
+        String hex = read(join(_branches, name));
+        return hex == null ? null : ObjectId.of(hex);
+    }
+
+    /** Return the names of all branches, in order. */
+    List<String> branches() {
+        List<String> names = plainFilenamesIn(_branches);
+        ArrayList<String> result = new ArrayList<>();
+        if (names != null) {
+            for (String name : names) {
+                if (!name.endsWith(".tmp")) {
+                    result.add(name);
+                }
+            }
+        }
+        result.sort(null);
+        return result;
+    }
+
+    /** Move branch NAME from EXPECTED to ID, creating it if EXPECTED is
+     *  null, once every object written so far is durable. */
+    void update(String name, ObjectId expected, ObjectId id) {
+        checkLocked();
+        ObjectId current = branch(name);
+        if (current == null ? expected != null : !current.equals(expected)) {
+            throw error("Branch %s was moved by another command.", name);
+        }
+        ObjectStore.sync();
+        _branches.mkdirs();
+        write(join(_branches, name), id.toString());
+    }
+
+    /** Remove branch NAME, which must be at EXPECTED. */
+    void delete(String name, ObjectId expected) {
+        checkLocked();
+        ObjectId current = branch(name);
+        if (current == null || !current.equals(expected)) {
+            throw error("Branch %s was moved by another command.", name);
+        }
+        join(_branches, name).delete();
+        ObjectWriter.force(_branches);
+    }
+
+    /** Return the name of the current branch, or null if none is set. */
+    String head() {
+        return read(_head);
+    }
+
+    /** Make NAME the current branch. */
+    void setHead(String name) {
+        checkLocked();
+        write(_head, name);
+    }
+
+    /** Return the trimmed contents of FILE, or null if it does not
+     *  exist. */
+    private static String read(File file) {
+        try {
+            return new String(Files.readAllBytes(file.toPath()),
+                    StandardCharsets.UTF_8).trim();
+        } catch (NoSuchFileException excp) {
+            return null;
+        } catch (IOException excp) {
+            throw error("Could not read %s: %s", file, excp.getMessage());
+        }
+    }
+
+    /** Replace the contents of FILE with VALUE and a newline, durably and
+     *  atomically. */
+    private static void write(File file, String value) {
+        File temp = new File(file.getPath() + ".tmp");
+        try {
+            Files.write(temp.toPath(),
+                    (value + "\n").getBytes(StandardCharsets.UTF_8));
+            ObjectWriter.force(temp);
+            Files.move(temp.toPath(), file.toPath(),
+                    StandardCopyOption.ATOMIC_MOVE,
+                    StandardCopyOption.REPLACE_EXISTING);
+        } catch (IOException excp) {
+            throw error("Could not write %s: %s", file, excp.getMessage());
+        }
+        ObjectWriter.force(file.getParentFile());
+    }
+
+    /** Fail unless this process holds the exclusive lock on the
+     *  repository. */
+    private void checkLocked() {
+        if (!RepoLock.isExclusive(_dir)) {
+            throw error("Branches may only be changed under an exclusive "
+                        + "repository lock.");
+        }
+    }
+
+    /** The repository's .gitlet directory. */
+    private final File _dir;
+
+    /** Directory of branch files. */
+    private final File _branches;
+
+    /** File naming the current branch. */
+    private final File _head;
+
+}
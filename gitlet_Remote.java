@@ -0,0 +1,245 @@
+package gitlet;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+
+import static gitlet.Utils.*;
+
+/** Another repository on the same filesystem, named by its .gitlet
+ *  directory, to and from which commits are pushed and fetched.
+ *
+ *  A transfer copies only the objects the receiving repository lacks.
+ *  The sender walks its history down from the commit wanted, asking the
+ *  receiver at each commit whether it has it, through the receiver's
+ *  commit graph and pack index; the walk stops at each commit the
+ *  receiver has, since a repository that holds a commit holds its whole
+ *  history. The blobs of the commits found missing, and the bases of any
+ *  of them stored as deltas, are checked against the receiver in the
+ *  same way. Everything missing is copied exactly as stored, without
+ *  recompressing, and appended to the receiver's pack in one write,
+ *  each object streamed from its file so that its size is unbounded,
+ *  after which the receiver's commit graph and, if it has been built, its
+ *  message index are updated, reading any commits they need besides those
+ *  copied from the receiver itself. Branches are left to the caller, which
+ *  should move them only once the transfer returns.
+ *
+ *  The receiving repository is locked exclusively for the transfer, and
+ *  the sending one shared, the two always in the order of their paths so
+ *  that opposite transfers between the same repositories cannot each
+ *  hold the lock the other waits for.
+ *
+ *  Loose objects in the remote repository are expected in the sharded
+ *  layout. */
+class Remote {
+
+    /** The repository whose .gitlet directory is DIR. */
+    Remote(File dir) {
+        if (!dir.isDirectory()) {
+            throw error("Remote directory not found.");
+        }
+        _dir = dir;
+    }
+
+    /** Copy into this repository the remote commit HEAD and every object
+     *  it needs that this repository lacks, returning the number of
+     *  objects copied. */
+    int fetch(ObjectId head) {
+        RepoLock first = lock(_dir, ObjectStore.REPO, true);
+        try {
+            RepoLock second = lock(_dir, ObjectStore.REPO, false);
+            try {
+                ObjectStore.sync();
+                return transfer(new Side(_dir), new Side(), head);
+            } finally {
+                second.close();
+            }
+        } finally {
+            first.close();
+        }
+    }
+
+    /** Copy to the remote repository this repository's commit HEAD and
+     *  every object it needs that the remote lacks, returning the number
+     *  of objects copied. REMOTEHEAD, the commit at the head of the remote
+     *  branch being pushed to, must be HEAD or one of its ancestors, so
+     *  that moving the branch loses nothing; it may be null for a new
+     *  branch. */
+    int push(ObjectId head, ObjectId remoteHead) {
+        RepoLock first = lock(ObjectStore.REPO, _dir, true);
+        try {
+            RepoLock second = lock(ObjectStore.REPO, _dir, false);
+            try {
+                return pushLocked(head, remoteHead);
+            } finally {
+                second.close();
+            }
+        } finally {
+            first.close();
+        }
+    }
+
+    /** Push as for push(HEAD, REMOTEHEAD), holding both locks. */
+    private int pushLocked(ObjectId head, ObjectId remoteHead) {
+        ObjectStore.sync();
+        if (remoteHead != null
+            && !ObjectStore.commitGraph().isAncestor(remoteHead, head)) {
+            throw error("Please pull down remote changes before pushing.");
+        }
+        return transfer(new Side(), new Side(_dir), head);
+    }
+
+    /** Return the FIRST of the locks for a transfer from the repository
+     *  FROM to TO, or the second if not FIRST: a shared lock on FROM and
+     *  an exclusive one on TO, taken in the order of their paths. */
+    private static RepoLock lock(File from, File to, boolean first) {
+        boolean fromFirst =
+            RepoLock.key(from).compareTo(RepoLock.key(to)) < 0;
+        return fromFirst == first ? RepoLock.shared(from)
+            : RepoLock.exclusive(to);
+    }
+
+    /** Return the number of bytes copied by the last transfer. */
+    long bytes() {
+        return _bytes;
+    }
+
+    /** Copy from FROM to TO commit WANT and every object it needs that TO
+     *  lacks, returning the number of objects copied. */
+    private int transfer(Side from, Side to, ObjectId want) {
+        ArrayList<Commit> commits = new ArrayList<>();
+        LinkedHashMap<ObjectId, PackFile.Span> objects =
+            new LinkedHashMap<>();
+        HashSet<ObjectId> seen = new HashSet<>();
+        ArrayDeque<ObjectId> queue = new ArrayDeque<>();
+        queue.add(want);
+        while (!queue.isEmpty()) {
+            ObjectId id = queue.poll();
+            if (!seen.add(id) || to.hasCommit(id)) {
+                continue;
+            }
+            PackFile.Span stored = from.span(from._commits, id);
+            Commit commit = ObjectFormat.decodeCommit(from.read(stored, id));
+            commits.add(commit);
+            objects.put(id, stored);
+            for (ObjectId parent : new ObjectId[] {commit.parentId(),
+                                                   commit.mergeParentId()}) {
+                if (parent != null) {
+                    queue.add(parent);
+                }
+            }
+        }
+
+        for (Commit commit : commits) {
+            queue.addAll(commit.hashes());
+        }
+        while (!queue.isEmpty()) {
+            ObjectId id = queue.poll();
+            if (!seen.add(id) || to.has(to._files, id)) {
+                continue;
+            }
+            PackFile.Span stored = from.span(from._files, id);
+            objects.put(id, stored);
+            ObjectId base = ObjectStore.deltaBase(id, stored);
+            if (base != null) {
+                queue.add(base);
+            }
+        }
+
+        _bytes = 0;
+        for (PackFile.Span stored : objects.values()) {
+            _bytes += stored.length;
+        }
+        if (!objects.isEmpty()) {
+            to._pack.append(objects, null);
+            to._graph.add(commits, to::readCommit);
+            if (to._messages.exists()) {
+                to._messages.add(commits);
+            }
+        }
+        return objects.size();
+    }
+
+    /** One of the two repositories in a transfer. */
+    private static class Side {
+        /** The current repository, read through the object store. */
+        Side() {
+            _commits = ObjectStore.COMMITS;
+            _files = ObjectStore.FILES;
+            _pack = ObjectStore.packFile();
+            _graph = ObjectStore.commitGraph();
+            _messages = ObjectStore.messageIndex();
+        }
+
+        /** The repository whose .gitlet directory is DIR. */
+        Side(File dir) {
+            _commits = join(dir, ObjectStore.COMMITS.getName());
+            _files = join(dir, ObjectStore.FILES.getName());
+            _pack = new PackFile(join(dir, ObjectStore.PACK.getName()));
+            _graph = new CommitGraph(join(dir, ObjectStore.GRAPH.getName()));
+            _messages = new MessageIndex(
+                    join(dir, ObjectStore.MESSAGES.getName()));
+        }
+
+        /** Return whether this repository holds commit ID. */
+        boolean hasCommit(ObjectId id) {
+            return _graph.contains(id) || has(_commits, id);
+        }
+
+        /** Return whether this repository holds object ID, packed or
+         *  loose in DIR. */
+        boolean has(File dir, ObjectId id) {
+            return _pack.contains(id)
+                || ObjectStore.looseFile(dir, id).exists();
+        }
+
+        /** Return where object ID is stored here, packed or loose in
+         *  DIR. */
+        PackFile.Span span(File dir, ObjectId id) {
+            PackFile.Span packed = _pack.span(id);
+            if (packed != null) {
+                return packed;
+            }
+            File loose = ObjectStore.looseFile(dir, id);
+            if (!loose.isFile()) {
+                throw error("No object with id %s.", id);
+            }
+            return new PackFile.Span(loose);
+        }
+
+        /** Return commit ID as stored in this repository. */
+        Commit readCommit(ObjectId id) {
+            return ObjectFormat.decodeCommit(read(span(_commits, id), id));
+        }
+
+        /** Return the decoded contents of object ID, stored at STORED. */
+        byte[] read(PackFile.Span stored, ObjectId id) {
+            try (InputStream in = Codec.decode(stored.open())) {
+                return in.readAllBytes();
+            } catch (IOException excp) {
+                throw error("Could not read object %s: %s", id,
+                            excp.getMessage());
+            }
+        }
+
+        /** Directories of loose commits and files. */
+        private final File _commits, _files;
+        /** The repository's pack. */
+        private final PackFile _pack;
+        /** The repository's commit graph. */
+        private final CommitGraph _graph;
+        /** The repository's message index. */
+        private final MessageIndex _messages;
+    }
+
+    /** The remote's .gitlet directory. */
+    private final File _dir;
+
+    /** Bytes copied by the last transfer. */
+    private long _bytes;
+
+}
@@ -0,0 +1,136 @@
+package gitlet;
+
+import java.io.File;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+import static gitlet.Utils.*;
+
+/** Finds files that were renamed without change, by pairing files that
+ *  disappeared with files that appeared under the same blob hash. Since
+ *  blobs are named by their contents alone, this needs no comparison of
+ *  file contents, and working files are hashed only if some vanished file
+ *  has the same size.
+ *
+ *  Where several vanished and appeared files share contents, they are
+ *  paired in name order, and any left over are not renames. */
+class Renames {
+
+    /** Return the renames from REMOVED to ADDED, each a mapping from file
+     *  name to blob hash, ordered by old name. */
+    static List<Rename> match(Map<String, ObjectId> removed,
+                              Map<String, ObjectId> added) {
+        HashMap<ObjectId, ArrayDeque<String>> targets = new HashMap<>();
+        for (Map.Entry<String, ObjectId> file
+                 : new TreeMap<>(added).entrySet()) {
+            targets.computeIfAbsent(file.getValue(),
+                    k -> new ArrayDeque<>()).add(file.getKey());
+        }
+        ArrayList<Rename> result = new ArrayList<>();
+        for (Map.Entry<String, ObjectId> file
+                 : new TreeMap<>(removed).entrySet()) {
+            ArrayDeque<String> names = targets.get(file.getValue());
+            if (names != null && !names.isEmpty()) {
+                result.add(new Rename(file.getKey(), names.poll(),
+                        file.getValue()));
+            }
+        }
+        return result;
+    }
+
+    /** Return the renames from the files tracked in BEFORE to those
+     *  tracked in AFTER. */
+    static List<Rename> between(Manifest before, Manifest after) {
+        HashMap<String, ObjectId> removed = new HashMap<>(),
+            added = new HashMap<>();
+        for (Manifest.Entry entry : before.entries()) {
+            if (after.get(entry.name()) == null) {
+                removed.put(entry.name(), entry.id());
+            }
+        }
+        for (Manifest.Entry entry : after.entries()) {
+            if (before.get(entry.name()) == null) {
+                added.put(entry.name(), entry.id());
+            }
+        }
+        return match(removed, added);
+    }
+
+    /** Return the renames from the files tracked by HEAD that are missing
+     *  from the directory DIR to the untracked files in DIR, as status
+     *  reports them. Untracked files are hashed, through INDEX, only if
+     *  their size matches that of a missing file. INDEX is updated but
+     *  not saved. */
+    static List<Rename> working(Commit head, File dir, StatIndex index) {
+        List<String> present = plainFilenamesIn(dir);
+        HashSet<String> names = new HashSet<>();
+        if (present != null) {
+            names.addAll(present);
+        }
+        HashMap<String, ObjectId> removed = new HashMap<>(),
+            added = new HashMap<>();
+        HashSet<Long> sizes = new HashSet<>();
+        for (Manifest.Entry entry : head.manifest().entries()) {
+            if (!names.contains(entry.name())) {
+                removed.put(entry.name(), entry.id());
+                sizes.add(entry.size());
+            }
+        }
+        if (removed.isEmpty()) {
+            return new ArrayList<>();
+        }
+        for (String name : names) {
+            File file = new File(dir, name);
+            if (head.manifest().get(name) == null
+                    && sizes.contains(file.length())) {
+                added.put(name, index.blob(file).id());
+            }
+        }
+        return match(removed, added);
+    }
+
+    /** A file renamed without change. */
+    static class Rename {
+
+        /** A rename of file FROM to file TO, both with blob hash ID. */
+        Rename(String from, String to, ObjectId id) {
+            _from = from;
+            _to = to;
+            _id = id;
+        }
+
+        /** Return the old name. */
+        String from() {
+            return _from;
+        }
+
+        /** Return the new name. */
+        String to() {
+            return _to;
+        }
+
+        /** Return the blob hash of the file's contents. */
+        ObjectId id() {
+            return _id;
+        }
+
+        /** Return this rename as status prints it: "FROM -> TO". */
+        @Override
+        public String toString() {
+            return _from + " -> " + _to;
+        }
+
+        /** Old name. */
+        private final String _from;
+        /** New name. */
+        private final String _to;
+        /** Blob hash of the contents. */
+        private final ObjectId _id;
+    }
+
+}
@@ -0,0 +1,229 @@
+package gitlet;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.file.StandardOpenOption;
+import java.util.HashMap;
+
+import static gitlet.Utils.*;
+
+/** A lock on a whole repository, held through an operating-system file
+ *  lock on its .gitlet/lock file, so that it excludes other gitlet
+ *  processes. Commands that only read, such as log, find and status,
+ *  take it shared, and any number of them may run at once; commands that
+ *  write objects, the staging area or branches take it exclusive, and
+ *  run alone.
+ *
+ *  A lock is held until closed, and is meant to be taken with
+ *  try-with-resources. Within one process, locks are counted: taking the
+ *  lock again while it is held, exclusive or shared under shared, only
+ *  counts up, and the file lock is released when the last is closed.
+ *  Taking it exclusive while holding it shared is an error, since two
+ *  processes each waiting to upgrade would wait forever.
+ *
+ *  A command that cannot take the lock within TIMEOUT_MS gives up rather
+ *  than waiting indefinitely for a command that may have hung. That wait
+ *  happens outside the monitor guarding the counts, so that a thread
+ *  waiting for one repository holds up neither threads locking another
+ *  nor those releasing their locks. */
+class RepoLock implements AutoCloseable {
+
+    /** Time in ms to wait for the lock, settable with the system property
+     *  gitlet.lock.timeout. */
+    static final long TIMEOUT_MS = Long.getLong("gitlet.lock.timeout",
+            10000);
+
+    /** Return a shared lock on the current repository. */
+    static RepoLock shared() {
+        return shared(ObjectStore.REPO);
+    }
+
+    /** Return an exclusive lock on the current repository. */
+    static RepoLock exclusive() {
+        return exclusive(ObjectStore.REPO);
+    }
+
+    /** Return a shared lock on the repository whose .gitlet directory is
+     *  DIR. */
+    static RepoLock shared(File dir) {
+        return acquire(dir, true);
+    }
+
+    /** Return an exclusive lock on the repository whose .gitlet directory
+     *  is DIR. */
+    static RepoLock exclusive(File dir) {
+        return acquire(dir, false);
+    }
+
+    /** Return whether this process holds the lock on the repository whose
+     *  .gitlet directory is DIR exclusively. */
+    static synchronized boolean isExclusive(File dir) {
+        Held held = HELD.get(key(dir));
+        return held != null && held.channel != null && !held.shared;
+    }
+
+    /** Release this hold on the lock. */
+    @Override
+    public void close() {
+        synchronized (RepoLock.class) {
+            if (_closed) {
+                return;
+            }
+            _closed = true;
+            _held.count -= 1;
+            if (_held.count > 0) {
+                return;
+            }
+            HELD.remove(_key);
+            try {
+                _held.channel.close();
+            } catch (IOException excp) {
+                throw error("Could not unlock repository: %s",
+                        excp.getMessage());
+            }
+        }
+    }
+
+    /** A hold on the lock HELD, taken on the repository KEY. */
+    private RepoLock(String key, Held held) {
+        _key = key;
+        _held = held;
+    }
+
+    /** Return a hold on the lock on the repository whose .gitlet directory
+     *  is DIR, SHARED or exclusive, waiting up to TIMEOUT_MS for it. Only
+     *  the counts are kept under the class's monitor; the file lock is
+     *  waited for outside it, while other threads wanting the same
+     *  repository wait for the outcome. */
+    private static RepoLock acquire(File dir, boolean shared) {
+        if (!dir.isDirectory()) {
+            throw error("Not in an initialized Gitlet directory.");
+        }
+        String key = key(dir);
+        Held held;
+        synchronized (RepoLock.class) {
+            held = HELD.get(key);
+            while (held != null && held.channel == null) {
+                try {
+                    RepoLock.class.wait();
+                } catch (InterruptedException excp) {
+                    Thread.currentThread().interrupt();
+                    throw error("Interrupted locking repository.");
+                }
+                held = HELD.get(key);
+            }
+            if (held != null) {
+                if (held.shared && !shared) {
+                    throw error("Cannot lock the repository for writing "
+                                + "while it is locked for reading.");
+                }
+                held.count += 1;
+                return new RepoLock(key, held);
+            }
+            held = new Held();
+            held.shared = shared;
+            held.count = 1;
+            HELD.put(key, held);
+        }
+        FileChannel channel = null;
+        try {
+            channel = lockFile(dir, shared);
+        } finally {
+            synchronized (RepoLock.class) {
+                if (channel == null) {
+                    HELD.remove(key);
+                } else {
+                    held.channel = channel;
+                }
+                RepoLock.class.notifyAll();
+            }
+        }
+        return new RepoLock(key, held);
+    }
+
+    /** Return the lock file of the repository whose .gitlet directory is
+     *  DIR, opened and locked SHARED or exclusive, retrying with growing
+     *  pauses for up to TIMEOUT_MS while another process holds it. */
+    private static FileChannel lockFile(File dir, boolean shared) {
+        FileChannel channel;
+        try {
+            channel = FileChannel.open(join(dir, "lock").toPath(),
+                    StandardOpenOption.CREATE, StandardOpenOption.READ,
+                    StandardOpenOption.WRITE);
+        } catch (IOException excp) {
+            throw error("Could not lock repository: %s", excp.getMessage());
+        }
+        RuntimeException failure;
+        try {
+            long deadline = System.currentTimeMillis() + TIMEOUT_MS;
+            for (long wait = 1; true; wait = Math.min(2 * wait, 100)) {
+                FileLock lock = channel.tryLock(0, Long.MAX_VALUE, shared);
+                if (lock != null) {
+                    return channel;
+                } else if (System.currentTimeMillis() >= deadline) {
+                    failure = error("Another gitlet command is using the "
+                                    + "repository.");
+                    break;
+                }
+                Thread.sleep(wait);
+            }
+        } catch (IOException excp) {
+            failure = error("Could not lock repository: %s",
+                    excp.getMessage());
+        } catch (InterruptedException excp) {
+            Thread.currentThread().interrupt();
+            failure = error("Interrupted locking repository.");
+        } catch (RuntimeException excp) {
+            failure = excp;
+        }
+        abandon(channel, failure);
+        throw failure;
+    }
+
+    /** Close CHANNEL, which could not be locked because of FAILURE, adding
+     *  any error in closing it to FAILURE. */
+    private static void abandon(FileChannel channel,
+                                RuntimeException failure) {
+        try {
+            channel.close();
+        } catch (IOException excp) {
+            failure.addSuppressed(excp);
+        }
+    }
+
+    /** Return the key under which the repository DIR's lock is held: its
+     *  canonical path, the same however DIR is named. */
+    static String key(File dir) {
+        try {
+            return dir.getCanonicalPath();
+        } catch (IOException excp) {
+            return dir.getAbsolutePath();
+        }
+    }
+
+    /** A lock held by this process. */
+    private static class Held {
+        /** Open lock file, whose closing releases the lock. Null while
+         *  the lock is being taken. */
+        private FileChannel channel;
+        /** Whether the lock is shared. */
+        private boolean shared;
+        /** Number of holds not yet closed. */
+        private int count;
+    }
+
+    /** Locks held by this process, by repository. */
+    private static final HashMap<String, Held> HELD = new HashMap<>();
+
+    /** The repository locked. */
+    private final String _key;
+
+    /** The lock this is a hold on. */
+    private final Held _held;
+
+    /** Whether this hold has been released. */
+    private boolean _closed;
+
+}
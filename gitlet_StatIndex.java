@@ -0,0 +1,205 @@
+package gitlet;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import static gitlet.Utils.*;
+
+/** A record of the size, modification time and inode of every working
+ *  file whose blob hash is known, so that a file that has not changed
+ *  since it was last added or checked out can be recognized from a
+ *  single stat instead of being read and hashed again.
+ *
+ *  A file modified within the same clock tick as the index was written
+ *  could change without its recorded time changing, so any file whose
+ *  modification time is not strictly older than the index itself is
+ *  always rehashed.
+ *
+ *  Layout: MAGIC, entry count, then for each entry its size, modification
+ *  time in ms, file key (the inode, where the platform has one), path and
+ *  blob hash. The index is written beside the old one and
+ *  renamed into place, so readers never see a partial index.
+ *
+ *  blob(), lookup(), record(), remove() and checkout() may be called from
+ *  several threads at once; save() may not. */
+class StatIndex {
+
+    /** Leading bytes of every index file. */
+    static final int MAGIC = 0x47535458;
+
+    /** The repository's index. */
+    static final File INDEX = new File("./.gitlet/index");
+
+    /** The index stored in FILE, read if it exists. */
+    StatIndex(File file) {
+        _file = file;
+        _entries = new ConcurrentHashMap<>();
+        if (!file.exists()) {
+            return;
+        }
+        _written = file.lastModified();
+        try (DataInputStream in = new DataInputStream(
+                new BufferedInputStream(new FileInputStream(file)))) {
+            if (in.readInt() != MAGIC) {
+                throw error("Corrupt index %s.", file);
+            }
+            for (int n = in.readInt(); n > 0; n -= 1) {
+                Entry entry = new Entry(in.readLong(), in.readLong(),
+                        in.readUTF(), null);
+                String path = in.readUTF();
+                entry.id = ObjectId.of(in.readUTF());
+                _entries.put(path, entry);
+            }
+        } catch (IOException excp) {
+            throw error("Could not read index: %s", excp.getMessage());
+        }
+    }
+
+    /** Return a Blob for the working file FILE, taking its hash from the
+     *  index if FILE is unchanged since it was recorded and hashing it
+     *  (and recording the result) otherwise. */
+    Blob blob(File file) {
+        Entry stat = stat(file);
+        Entry known = _entries.get(key(file));
+        if (known != null && known.matches(stat) && stat.mtime < _written) {
+            return new Blob(file, known.id);
+        }
+        Blob result = new Blob(file);
+        stat.id = result.id();
+        _entries.put(key(file), stat);
+        _dirty = true;
+        return result;
+    }
+
+    /** Return the blob hash recorded for FILE if it is unchanged since it
+     *  was recorded, or null if it must be rehashed. */
+    ObjectId lookup(File file) {
+        Entry known = _entries.get(key(file));
+        if (known == null || !file.exists()) {
+            return null;
+        }
+        Entry stat = stat(file);
+        return known.matches(stat) && stat.mtime < _written ? known.id : null;
+    }
+
+    /** Record that FILE currently holds the blob with hash ID, as after
+     *  an add or a checkout. */
+    void record(File file, ObjectId id) {
+        Entry stat = stat(file);
+        stat.id = id;
+        _entries.put(key(file), stat);
+        _dirty = true;
+    }
+
+    /** Forget FILE, as after it is removed. */
+    void remove(File file) {
+        if (_entries.remove(key(file)) != null) {
+            _dirty = true;
+        }
+    }
+
+    /** Write BLOB to the working file DEST and record it. */
+    void checkout(Blob blob, File dest) {
+        blob.restore(dest);
+        record(dest, blob.id());
+    }
+
+    /** Write the index if it has changed since it was read. */
+    void save() {
+        if (!_dirty) {
+            return;
+        }
+        File temp = ObjectStore.tempFile(_file);
+        try (DataOutputStream out = new DataOutputStream(
+                new BufferedOutputStream(new FileOutputStream(temp)))) {
+            out.writeInt(MAGIC);
+            out.writeInt(_entries.size());
+            for (Map.Entry<String, Entry> e : _entries.entrySet()) {
+                Entry entry = e.getValue();
+                out.writeLong(entry.size);
+                out.writeLong(entry.mtime);
+                out.writeUTF(entry.inode);
+                out.writeUTF(e.getKey());
+                out.writeUTF(entry.id.toString());
+            }
+        } catch (IOException excp) {
+            throw error("Could not write index: %s", excp.getMessage());
+        }
+        try {
+            Files.move(temp.toPath(), _file.toPath(),
+                    StandardCopyOption.ATOMIC_MOVE,
+                    StandardCopyOption.REPLACE_EXISTING);
+        } catch (IOException excp) {
+            throw error("Could not write index: %s", excp.getMessage());
+        }
+        _written = _file.lastModified();
+        _dirty = false;
+    }
+
+    /** Return the current size, modification time and inode of FILE. */
+    private static Entry stat(File file) {
+        try {
+            BasicFileAttributes attrs = Files.readAttributes(file.toPath(),
+                    BasicFileAttributes.class);
+            Object inode = attrs.fileKey();
+            return new Entry(attrs.size(), attrs.lastModifiedTime().toMillis(),
+                    inode == null ? "" : inode.toString(), null);
+        } catch (IOException excp) {
+            throw error("Could not stat %s: %s", file, excp.getMessage());
+        }
+    }
+
+    /** Return the key under which FILE is recorded. */
+    private static String key(File file) {
+        return file.toPath().normalize().toString();
+    }
+
+    /** What is known about one working file. */
+    private static class Entry {
+        Entry(long size, long mtime, String inode, ObjectId id) {
+            this.size = size;
+            this.mtime = mtime;
+            this.inode = inode;
+            this.id = id;
+        }
+
+        /** Return whether OTHER has the same size, time and inode. */
+        boolean matches(Entry other) {
+            return size == other.size && mtime == other.mtime
+                    && inode.equals(other.inode);
+        }
+
+        /** Size in bytes. */
+        private final long size;
+        /** Modification time in ms since the Unix Epoch. */
+        private final long mtime;
+        /** Platform file key, or "" if there is none. */
+        private final String inode;
+        /** Blob hash of the contents. */
+        private ObjectId id;
+    }
+
+    /** The index file. */
+    private final File _file;
+
+    /** Entries by normalized path. */
+    private final ConcurrentHashMap<String, Entry> _entries;
+
+    /** Modification time of the index file when last read or written. */
+    private long _written;
+
+    /** Whether any entry has changed since the index was read. */
+    private volatile boolean _dirty;
+
+}
@@ -0,0 +1,152 @@
+package gitlet;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+
+/** A line-by-line merge of two versions of a file changed from a common
+ *  base, marking only the regions where they conflict.
+ *
+ *  The line edits from the base to each version are walked together in
+ *  base order. Edits from the two sides that overlap or touch are
+ *  grouped; a group changed by one side only takes that side's lines,
+ *  and one changed identically by both takes either. Otherwise the group
+ *  is a conflict, from which the lines the two sides agree on at its
+ *  start and end are moved outside the markers, so that each conflict is
+ *  as small as the versions allow. */
+class ThreeWayMerge {
+
+    /** A merge of OURS and THEIRS, both changed from BASE; a null version
+     *  stands for a missing file. */
+    ThreeWayMerge(byte[] base, byte[] ours, byte[] theirs) {
+        _base = new Diff.Lines(base == null ? new byte[0] : base);
+        _ours = new Diff.Lines(ours == null ? new byte[0] : ours);
+        _theirs = new Diff.Lines(theirs == null ? new byte[0] : theirs);
+    }
+
+    /** Write the merged file to OUT, returning the number of conflicts
+     *  marked in it. */
+    int write(OutputStream out) throws IOException {
+        List<Diff.Edit> mine = Diff.lines(_base, _ours),
+            yours = Diff.lines(_base, _theirs);
+        int conflicts = 0;
+        int i = 0, j = 0, at = 0, shiftOurs = 0, shiftTheirs = 0;
+        while (i < mine.size() || j < yours.size()) {
+            int lo = Math.min(beginA(mine, i), beginA(yours, j)), hi = lo;
+            int fromOurs = lo + shiftOurs, fromTheirs = lo + shiftTheirs;
+            boolean changedOurs = false, changedTheirs = false;
+            while (true) {
+                if (beginA(mine, i) <= hi) {
+                    Diff.Edit edit = mine.get(i++);
+                    hi = Math.max(hi, edit.endA);
+                    shiftOurs += (edit.endB - edit.beginB)
+                        - (edit.endA - edit.beginA);
+                    changedOurs = true;
+                } else if (beginA(yours, j) <= hi) {
+                    Diff.Edit edit = yours.get(j++);
+                    hi = Math.max(hi, edit.endA);
+                    shiftTheirs += (edit.endB - edit.beginB)
+                        - (edit.endA - edit.beginA);
+                    changedTheirs = true;
+                } else {
+                    break;
+                }
+            }
+            int toOurs = hi + shiftOurs, toTheirs = hi + shiftTheirs;
+            _base.copy(out, at, lo);
+            at = hi;
+            if (!changedTheirs
+                || changedOurs && _ours.same(fromOurs, toOurs,
+                        _theirs, fromTheirs, toTheirs)) {
+                _ours.copy(out, fromOurs, toOurs);
+            } else if (!changedOurs) {
+                _theirs.copy(out, fromTheirs, toTheirs);
+            } else {
+                conflicts += conflict(out, fromOurs, toOurs,
+                        fromTheirs, toTheirs);
+            }
+        }
+        _base.copy(out, at, _base.size());
+        return conflicts;
+    }
+
+    /** Return the merged file, with conflicts marked. */
+    byte[] merged() {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        try {
+            _conflicts = write(out);
+        } catch (IOException excp) {
+            throw new IllegalStateException(excp);
+        }
+        return out.toByteArray();
+    }
+
+    /** Return the number of conflicts found by the last call to
+     *  merged(). */
+    int conflicts() {
+        return _conflicts;
+    }
+
+    /** Write to OUT the conflict between lines [FROMOURS, TOOURS) of ours
+     *  and [FROMTHEIRS, TOTHEIRS) of theirs, keeping the lines both share
+     *  at either end outside the markers. Return 1 if the lines still
+     *  conflict once those are removed, and otherwise 0. */
+    private int conflict(OutputStream out, int fromOurs, int toOurs,
+                         int fromTheirs, int toTheirs) throws IOException {
+        int start = 0;
+        while (fromOurs + start < toOurs && fromTheirs + start < toTheirs
+               && _ours.same(fromOurs + start, _theirs, fromTheirs + start)) {
+            start += 1;
+        }
+        int end = 0;
+        while (toOurs - end > fromOurs + start
+               && toTheirs - end > fromTheirs + start
+               && _ours.same(toOurs - end - 1, _theirs, toTheirs - end - 1)) {
+            end += 1;
+        }
+        _ours.copy(out, fromOurs, fromOurs + start);
+        if (fromOurs + start == toOurs - end
+            && fromTheirs + start == toTheirs - end) {
+            _ours.copy(out, toOurs - end, toOurs);
+            return 0;
+        }
+        out.write(OURS);
+        section(out, _ours, fromOurs + start, toOurs - end);
+        out.write(SEPARATOR);
+        section(out, _theirs, fromTheirs + start, toTheirs - end);
+        out.write(THEIRS);
+        _ours.copy(out, toOurs - end, toOurs);
+        return 1;
+    }
+
+    /** Write lines [FROM, TO) of LINES to OUT, ending them with a newline
+     *  if the last has none, so that the next marker starts a line. */
+    private static void section(OutputStream out, Diff.Lines lines,
+                                int from, int to) throws IOException {
+        lines.copy(out, from, to);
+        if (to > from && !lines.endsLine(to - 1)) {
+            out.write('\n');
+        }
+    }
+
+    /** Return the start in the base of edit K of EDITS, or past any line
+     *  if there is none. */
+    private static int beginA(List<Diff.Edit> edits, int k) {
+        return k < edits.size() ? edits.get(k).beginA : Integer.MAX_VALUE;
+    }
+
+    /** Conflict markers. */
+    private static final byte[]
+        OURS = "<<<<<<< HEAD\n".getBytes(StandardCharsets.UTF_8),
+        SEPARATOR = "=======\n".getBytes(StandardCharsets.UTF_8),
+        THEIRS = ">>>>>>>\n".getBytes(StandardCharsets.UTF_8);
+
+    /** The common base and the two versions changed from it. */
+    private final Diff.Lines _base, _ours, _theirs;
+
+    /** Conflicts found by the last call to merged(). */
+    private int _conflicts;
+
+}